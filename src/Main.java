@@ -1,8 +1,7 @@
-import os.OperatingSystem;
+import vm.VmInstance;
 
 public class Main {
     public static void main(String[] args) {
-        OperatingSystem os = new OperatingSystem();
-        os.startShell();
+        VmInstance.getDefault().getOperatingSystem().startShell();
     }
 }
\ No newline at end of file
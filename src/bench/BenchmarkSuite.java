@@ -0,0 +1,20 @@
+package bench;
+
+import java.io.IOException;
+
+/**
+ * Every harness benchmark in one run, the numbers to save and compare against to catch regressions:
+ * java -cp out bench.BenchmarkSuite -prof gc -save baseline.tsv
+ * and after a change
+ * java -cp out bench.BenchmarkSuite -prof gc -compare baseline.tsv
+ * Run from the repo root, the cases are read from files/cases.
+ */
+public class BenchmarkSuite {
+    public static void main(String[] args) throws IOException {
+        Harness harness = new Harness(args);
+        CasesBenchmark.register(harness);
+        MemoryThroughputBenchmark.register(harness);
+        ReadyQueueBenchmark.register(harness);
+        System.exit(harness.run());
+    }
+}
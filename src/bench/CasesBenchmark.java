@@ -0,0 +1,88 @@
+package bench;
+
+import os.OperatingSystem;
+import os.ProcessControlBlock;
+import vm.hardware.Cpu;
+import vm.hardware.Memory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Cpu.run instructions/sec on the generated cases in files/cases, the three programs of a case run one after another,
+ * in both the predecoded and the byte interpreter.
+ * IO finishes the moment it's asked for, so this is the interpreter and memory on their own without the scheduler
+ * picking who runs next. The images are loaded before every call and memory is only cleared once it fills up.
+ * Run from the repo root with: java -cp out bench.CasesBenchmark [harness options]
+ */
+public class CasesBenchmark {
+    private static final String[] CASES = {"s-cpu", "s-io", "m-cpu", "m-io", "l-cpu", "l-io"};
+    private static final int PROGRAMS_PER_CASE = 3;
+    //clear memory before the next images would get near the end of it
+    private static final int MEMORY_BUDGET = 8_000_000;
+
+    private static int loadedBytes = MEMORY_BUDGET;
+    private static int nextPid = 1;
+
+    public static void main(String[] args) throws IOException {
+        Harness harness = new Harness(args);
+        register(harness);
+        System.exit(harness.run());
+    }
+
+    static void register(Harness harness) throws IOException {
+        OperatingSystem os = new CaseOperatingSystem();
+        for (String name : CASES) {
+            byte[][] images = new byte[PROGRAMS_PER_CASE][];
+            for (int i = 0; i < PROGRAMS_PER_CASE; i++) {
+                images[i] = Files.readAllBytes(Paths.get("files/cases/" + name + "-" + (i + 1) + ".osx"));
+            }
+
+            ProcessControlBlock[] pcbs = new ProcessControlBlock[PROGRAMS_PER_CASE];
+            harness.add("cpu.run " + name + " predecoded", "instructions", () -> load(images, pcbs, true), () -> run(pcbs, os));
+            harness.add("cpu.run " + name + " byte", "instructions", () -> load(images, pcbs, false), () -> run(pcbs, os));
+        }
+    }
+
+    private static void load(byte[][] images, ProcessControlBlock[] pcbs, boolean predecoded) {
+        Memory memory = Memory.getInstance();
+        Cpu.getInstance().setPredecodedMode(predecoded);
+
+        int size = 0;
+        for (byte[] image : images) {
+            size += image.length;
+        }
+        if (loadedBytes + size > MEMORY_BUDGET) {
+            memory.clear();
+            loadedBytes = 0;
+        }
+
+        for (int i = 0; i < images.length; i++) {
+            pcbs[i] = memory.load(images[i], new ProcessControlBlock(nextPid++, "bench", 0));
+        }
+        loadedBytes += size;
+    }
+
+    private static long run(ProcessControlBlock[] pcbs, OperatingSystem os) {
+        Cpu cpu = Cpu.getInstance();
+        long before = cpu.getInstructionsExecuted();
+        for (ProcessControlBlock pcb : pcbs) {
+            cpu.run(pcb, os);
+        }
+        return cpu.getInstructionsExecuted() - before;
+    }
+
+    /**
+     * Hands IO back straight away and lets processes end without the scheduler's bookkeeping
+     */
+    private static class CaseOperatingSystem extends OperatingSystem {
+        @Override
+        public void addToIOQueue(ProcessControlBlock pcb) {
+        }
+
+        @Override
+        public void terminateProcess(ProcessControlBlock pcb) {
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package bench;
+
+import os.OperatingSystem;
+import os.ProcessControlBlock;
+import os.util.MetricsTracker;
+import os.util.Timeline;
+import vm.VmInstance;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Runs the same seeded workload twice, once ticking the clock through every unit and once event driven,
+ * and compares everything the runs leave behind: every process's timeline, the metrics and the per core numbers.
+ * The event driven clock is only supposed to skip time nothing happens in, so any difference is a bug in how it skips.
+ */
+class ClockModeCheck {
+    private final long seed;
+    private final Map<String, Integer> niceValues = new LinkedHashMap<>();
+
+    ClockModeCheck(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Every run from now on starts processes from that program at the nice value
+     */
+    void setNice(String filePath, int nice) {
+        niceValues.put(filePath, nice);
+    }
+
+    /**
+     * @param schedule the setsched arguments, e.g. "mfq 5 10 boost 50"
+     * @param workload the execute command to run, e.g. "execute files/cases/m-io-1.osx 1"
+     * @return the first line the two runs disagree on, null if they agree
+     */
+    String compare(String schedule, int cores, String workload) {
+        List<String> tick = run(schedule, cores, workload, false);
+        List<String> event = run(schedule, cores, workload, true);
+        for (int i = 0; i < Math.max(tick.size(), event.size()); i++) {
+            String tickLine = i < tick.size() ? tick.get(i) : "nothing";
+            String eventLine = i < event.size() ? event.get(i) : "nothing";
+            if (!tickLine.equals(eventLine)) {
+                return "tick: " + tickLine + "\nevent: " + eventLine;
+            }
+        }
+        return null;
+    }
+
+    private List<String> run(String schedule, int cores, String workload, boolean eventDriven) {
+        VmInstance vm = new VmInstance(new Random(seed));
+        try {
+            return vm.call(() -> {
+                OperatingSystem os = vm.getOperatingSystem();
+                os.setReporting(false);
+                os.setCores(cores);
+                os.setClockMode(new String[]{"clockmode", eventDriven ? "event" : "tick"});
+                os.setSchedule(("setsched " + schedule).split(" "));
+                for (Map.Entry<String, Integer> nice : niceValues.entrySet()) {
+                    os.setNice(new String[]{"nice", nice.getKey(), String.valueOf(nice.getValue())});
+                }
+                os.schedule(workload.split(" "));
+                return describe(os);
+            });
+        } catch (Exception e) {
+            throw new IllegalStateException(schedule + " x" + cores + " " + workload + " failed", e);
+        }
+    }
+
+    /**
+     * One line per process with every burst it went through, then the metrics
+     */
+    private static List<String> describe(OperatingSystem os) {
+        List<String> lines = new ArrayList<>();
+        for (ProcessControlBlock pcb : os.getLastProcesses()) {
+            StringBuilder line = new StringBuilder("process " + pcb.getPid() + " " + pcb.getFilePath() + ":");
+            Timeline timeline = pcb.getTimeLine();
+            for (int burst = 0; burst < timeline.size(); burst++) {
+                line.append(' ').append(timeline.getQueueId(burst)).append(' ').append(timeline.getStart(burst))
+                        .append('-').append(timeline.getEnd(burst)).append(timeline.isBurstFinished(burst) ? "f" : "");
+            }
+            lines.add(line.toString());
+        }
+
+        MetricsTracker metrics = os.getLastMetrics();
+        lines.add("waiting " + metrics.getWaitingTime() + ", turnaround " + metrics.getTurnAroundTime()
+                + ", response " + metrics.getResponseTime() + ", elapsed " + metrics.getElapsedTime());
+        for (MetricsTracker.CoreMetrics core : metrics.getCoreMetrics()) {
+            lines.add(core.toString());
+        }
+        return lines;
+    }
+}
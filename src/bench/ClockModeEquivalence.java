@@ -0,0 +1,80 @@
+package bench;
+
+/**
+ * Checks that the event driven clock gives exactly the same runs as ticking through every unit, for every
+ * scheduling policy with its options on every generated case, on one core and on several, with the programs
+ * arriving close together and far apart. The cfs runs are repeated with nice values set.
+ * Skipping idle time only works if every ready queue replays what its empty polls would have done
+ * (IReadyQueue.skipEmptyPolls), so a new policy or option belongs in SCHEDULES before event mode can be trusted with it.
+ * Exits with 1 if any run differs.
+ * Run from the repo root with: java -cp out bench.ClockModeEquivalence [seed]
+ */
+public class ClockModeEquivalence {
+    private static final String[] SCHEDULES = {
+            "fcfs",
+            "rr 2",
+            "rr 5",
+            "mfq 5 10",
+            "mfq 2 4",
+            "mfq 5 10 20",
+            "mfq 3 boost 25",
+            "mfq 5 10 boost 50",
+            "mfq 2 4 boost 7",
+            "mfq 5 10 20 boost 100",
+            "sjf",
+            "sjf 0.2",
+            "srtf",
+            "srtf 0.8",
+            "cfs",
+            "cfs 12 2",
+            "cfs 48 6",
+    };
+    private static final String[] NICE_SCHEDULES = {"cfs", "cfs 12 2"};
+    private static final String[] CASES = {"s-cpu", "s-io", "m-cpu", "m-io", "l-cpu", "l-io"};
+    private static final int[] CORES = {1, 2, 4};
+    //when the second and third program of a case arrive, close enough to overlap and far enough apart to idle
+    private static final int[][] ARRIVALS = {{1, 40}, {300, 2000}};
+
+    private static int runs = 0;
+    private static int failed = 0;
+
+    public static void main(String[] args) {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 6510;
+
+        ClockModeCheck check = new ClockModeCheck(seed);
+        checkAll(check, SCHEDULES);
+
+        ClockModeCheck niceCheck = new ClockModeCheck(seed);
+        for (String name : CASES) {
+            niceCheck.setNice(program(name, 1), -10);
+            niceCheck.setNice(program(name, 3), 5);
+        }
+        checkAll(niceCheck, NICE_SCHEDULES);
+
+        System.out.println((runs - failed) + " of " + runs + " runs match between tick and event mode");
+        System.exit(failed > 0 ? 1 : 0);
+    }
+
+    private static void checkAll(ClockModeCheck check, String[] schedules) {
+        for (String schedule : schedules) {
+            for (String name : CASES) {
+                for (int cores : CORES) {
+                    for (int[] arrivals : ARRIVALS) {
+                        String workload = "execute " + program(name, 1) + " 1 " + program(name, 2) + " " + arrivals[0]
+                                + " " + program(name, 3) + " " + arrivals[1];
+                        String difference = check.compare(schedule, cores, workload);
+                        runs++;
+                        if (difference != null) {
+                            failed++;
+                            System.out.println("FAILED " + schedule + " x" + cores + " " + workload + "\n" + difference);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static String program(String name, int number) {
+        return "files/cases/" + name + "-" + number + ".osx";
+    }
+}
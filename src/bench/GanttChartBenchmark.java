@@ -0,0 +1,74 @@
+package bench;
+
+import os.ProcessControlBlock;
+import os.ProcessStatus;
+import os.queues.QueueId;
+import os.util.SystemGanttChart;
+import vm.hardware.Clock;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writes the system gantt chart for runs of a few processes that last millions of ticks, made by
+ * moving the processes between queues by hand instead of running programs.
+ * Bursts are long, so lots of ticks in a row look the same and get merged into one column.
+ * Run with: java -cp out bench.GanttChartBenchmark
+ */
+public class GanttChartBenchmark {
+    private static final int PROCESSES = 8;
+    private static final int[] TICKS = {100_000, 1_000_000, 5_000_000};
+
+    public static void main(String[] args) throws IOException {
+        System.out.println("System gantt chart for long runs");
+        for (int ticks : TICKS) {
+            run(ticks);
+        }
+    }
+
+    private static void run(int ticks) throws IOException {
+        Clock clock = Clock.getInstance();
+        Random random = new Random(ticks);
+        int startTime = clock.getTime();
+        List<ProcessControlBlock> processes = new ArrayList<>();
+        for (int pid = 1; pid <= PROCESSES; pid++) {
+            ProcessControlBlock pcb = new ProcessControlBlock(pid, "bench", 0);
+            pcb.setStatus(ProcessStatus.NEW, QueueId.JOB_QUEUE);
+            processes.add(pcb);
+        }
+
+        //every so often one process moves on, each one round robins through ready, running and io
+        QueueId[] cycle = {QueueId.RR_QUEUE, QueueId.RUNNING_QUEUE, QueueId.IO_QUEUE};
+        ProcessStatus[] statuses = {ProcessStatus.READY, ProcessStatus.RUNNING, ProcessStatus.WAITING};
+        int[] position = new int[PROCESSES];
+        while (clock.getTime() - startTime < ticks) {
+            clock.tick(1 + random.nextInt(200));
+            int process = random.nextInt(PROCESSES);
+            int next = position[process]++ % cycle.length;
+            processes.get(process).setStatus(statuses[next], cycle[next]);
+        }
+        for (ProcessControlBlock pcb : processes) {
+            pcb.setStatus(ProcessStatus.TERMINATED, QueueId.TERMINATED_QUEUE);
+        }
+
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+        File file = File.createTempFile("gantt", ".txt");
+        file.deleteOnExit();
+        long start = System.nanoTime();
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            SystemGanttChart.writeChart(processes, writer);
+        }
+        long elapsed = System.nanoTime() - start;
+        long heapAfter = runtime.totalMemory() - runtime.freeMemory();
+
+        System.out.printf("%,10d ticks: %,8d KB written in %6.1f ms, heap grew by about %,d KB%n",
+                ticks, file.length() / 1024, elapsed / 1e6, Math.max(0, heapAfter - heapBefore) / 1024);
+    }
+}
@@ -0,0 +1,278 @@
+package bench;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * A small JMH style runner for the benchmarks in here, there's no build to pull JMH itself in with.
+ * Every benchmark gets warmup iterations that are thrown away and then measured iterations, each one calling
+ * the benchmark until it has spent the iteration time inside it. Setup runs before every call and isn't measured.
+ * The score is operations per second, the error is the standard deviation over the measured iterations.
+ * Options, named like JMH's:
+ * -wi n warmup iterations (default 3), -i n measured iterations (default 5), -r ms iteration time (default 200),
+ * -prof gc to also report the bytes allocated per operation and the collections while measuring,
+ * -save file to write the scores, -compare file to exit with 1 if anything got slower or allocates more than
+ * the saved scores by over -tolerance percent (default 10).
+ * Anything else is a regex, only benchmarks with a match in their name run.
+ */
+public class Harness {
+    private static final com.sun.management.ThreadMXBean threadBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    //allocation differences smaller than this per operation are noise from the measuring itself
+    private static final double ALLOCATION_SLACK = 1.0;
+
+    private int warmupIterations = 3;
+    private int iterations = 5;
+    private long iterationNanos = 200_000_000L;
+    private boolean gcProfile = false;
+    private Path save;
+    private Path compare;
+    private double tolerance = 10;
+    private Pattern filter;
+
+    private final List<Benchmark> benchmarks = new ArrayList<>();
+
+    public Harness(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-wi":
+                    warmupIterations = Integer.parseInt(args[++i]);
+                    break;
+                case "-i":
+                    iterations = Integer.parseInt(args[++i]);
+                    break;
+                case "-r":
+                    iterationNanos = Long.parseLong(args[++i]) * 1_000_000L;
+                    break;
+                case "-prof":
+                    gcProfile = args[++i].equals("gc");
+                    break;
+                case "-save":
+                    save = Paths.get(args[++i]);
+                    break;
+                case "-compare":
+                    compare = Paths.get(args[++i]);
+                    break;
+                case "-tolerance":
+                    tolerance = Double.parseDouble(args[++i]);
+                    break;
+                default:
+                    filter = Pattern.compile(args[i]);
+                    break;
+            }
+        }
+    }
+
+    public interface Operation {
+        /**
+         * @return how many operations were done, e.g. instructions executed
+         */
+        long run();
+    }
+
+    public void add(String name, String unit, Operation operation) {
+        add(name, unit, () -> {
+        }, operation);
+    }
+
+    /**
+     * @param unit  what an operation is, scores are reported as that per second
+     * @param setup runs before every call of the operation, left out of the time and the allocations
+     */
+    public void add(String name, String unit, Runnable setup, Operation operation) {
+        benchmarks.add(new Benchmark(name, unit, setup, operation));
+    }
+
+    /**
+     * Runs every benchmark that matches the filter, then saves or compares the scores if asked to
+     *
+     * @return the exit code, 1 if compare found a regression
+     */
+    public int run() throws IOException {
+        System.out.printf("%d warmup, %d measured iterations of %d ms%s%n", warmupIterations, iterations,
+                iterationNanos / 1_000_000, gcProfile ? ", gc profile" : "");
+
+        List<Result> results = new ArrayList<>();
+        for (Benchmark benchmark : benchmarks) {
+            if (filter == null || filter.matcher(benchmark.name).find()) {
+                Result result = measure(benchmark);
+                System.out.println(result);
+                results.add(result);
+            }
+        }
+
+        if (save != null) {
+            save(results);
+        }
+        return compare != null ? compare(results) : 0;
+    }
+
+    private Result measure(Benchmark benchmark) {
+        for (int i = 0; i < warmupIterations; i++) {
+            iteration(benchmark);
+        }
+
+        long[] gcBefore = gcCounts();
+        double[] scores = new double[iterations];
+        long operations = 0;
+        long allocated = 0;
+        for (int i = 0; i < iterations; i++) {
+            Iteration iteration = iteration(benchmark);
+            scores[i] = iteration.operations / (iteration.nanos / 1_000_000_000.0);
+            operations += iteration.operations;
+            allocated += iteration.allocated;
+        }
+        long[] gcAfter = gcCounts();
+
+        double mean = 0;
+        for (double score : scores) {
+            mean += score;
+        }
+        mean /= scores.length;
+        double variance = 0;
+        for (double score : scores) {
+            variance += (score - mean) * (score - mean);
+        }
+        double error = scores.length > 1 ? Math.sqrt(variance / (scores.length - 1)) : 0;
+
+        double bytesPerOperation = gcProfile ? (double) allocated / operations : Double.NaN;
+        return new Result(benchmark.name, benchmark.unit, mean, error, bytesPerOperation,
+                gcAfter[0] - gcBefore[0], gcAfter[1] - gcBefore[1]);
+    }
+
+    private Iteration iteration(Benchmark benchmark) {
+        Iteration iteration = new Iteration();
+        long thread = Thread.currentThread().threadId();
+        while (iteration.nanos < iterationNanos) {
+            benchmark.setup.run();
+            long allocatedBefore = gcProfile ? threadBean.getThreadAllocatedBytes(thread) : 0;
+            long start = System.nanoTime();
+            iteration.operations += benchmark.operation.run();
+            iteration.nanos += System.nanoTime() - start;
+            if (gcProfile) {
+                iteration.allocated += threadBean.getThreadAllocatedBytes(thread) - allocatedBefore;
+            }
+        }
+        return iteration;
+    }
+
+    /**
+     * @return collections and milliseconds spent collecting so far, over every collector
+     */
+    private static long[] gcCounts() {
+        long[] counts = new long[2];
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            counts[0] += Math.max(0, gc.getCollectionCount());
+            counts[1] += Math.max(0, gc.getCollectionTime());
+        }
+        return counts;
+    }
+
+    private void save(List<Result> results) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("benchmark\tunit\tscore\terror\tbytes_per_op");
+        for (Result result : results) {
+            lines.add(String.format(Locale.ROOT, "%s\t%s\t%f\t%f\t%f", result.name, result.unit, result.score,
+                    result.error, result.bytesPerOperation));
+        }
+        Files.write(save, lines);
+        System.out.println("Saved " + results.size() + " scores to " + save);
+    }
+
+    /**
+     * Only benchmarks in both runs are compared, allocations only when both were run with the gc profile
+     */
+    private int compare(List<Result> results) throws IOException {
+        Map<String, String[]> baseline = new HashMap<>();
+        List<String> lines = Files.readAllLines(compare);
+        for (int i = 1; i < lines.size(); i++) {
+            String[] fields = lines.get(i).split("\t");
+            baseline.put(fields[0], fields);
+        }
+
+        int regressions = 0;
+        for (Result result : results) {
+            String[] fields = baseline.get(result.name);
+            if (fields == null) {
+                continue;
+            }
+
+            double score = Double.parseDouble(fields[2]);
+            double change = (result.score - score) / score * 100;
+            if (change < -tolerance) {
+                System.out.printf("REGRESSION %s: %,.0f -> %,.0f %s/s (%.1f%%)%n", result.name, score, result.score, result.unit, change);
+                regressions++;
+            }
+
+            double bytesPerOperation = Double.parseDouble(fields[4]);
+            if (!Double.isNaN(bytesPerOperation) && !Double.isNaN(result.bytesPerOperation)
+                    && result.bytesPerOperation > bytesPerOperation * (1 + tolerance / 100) + ALLOCATION_SLACK) {
+                System.out.printf("REGRESSION %s: %.1f -> %.1f bytes/op%n", result.name, bytesPerOperation, result.bytesPerOperation);
+                regressions++;
+            }
+        }
+
+        System.out.println(regressions == 0 ? "No regressions against " + compare : regressions + " regressions against " + compare);
+        return regressions == 0 ? 0 : 1;
+    }
+
+    private static class Benchmark {
+        private final String name;
+        private final String unit;
+        private final Runnable setup;
+        private final Operation operation;
+
+        Benchmark(String name, String unit, Runnable setup, Operation operation) {
+            this.name = name;
+            this.unit = unit;
+            this.setup = setup;
+            this.operation = operation;
+        }
+    }
+
+    private static class Iteration {
+        private long operations;
+        private long nanos;
+        private long allocated;
+    }
+
+    private static class Result {
+        private final String name;
+        private final String unit;
+        private final double score;
+        private final double error;
+        //NaN without the gc profile
+        private final double bytesPerOperation;
+        private final long collections;
+        private final long collectionMillis;
+
+        Result(String name, String unit, double score, double error, double bytesPerOperation, long collections, long collectionMillis) {
+            this.name = name;
+            this.unit = unit;
+            this.score = score;
+            this.error = error;
+            this.bytesPerOperation = bytesPerOperation;
+            this.collections = collections;
+            this.collectionMillis = collectionMillis;
+        }
+
+        @Override
+        public String toString() {
+            String line = String.format("%-36s %,18.0f +- %,14.0f %s/s", name, score, error, unit);
+            if (Double.isNaN(bytesPerOperation)) {
+                return line;
+            }
+            return line + String.format("  %10.2f B/op  %d gcs in %d ms", bytesPerOperation, collections, collectionMillis);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package bench;
+
+import os.ProcessControlBlock;
+import os.ProcessStatus;
+import os.queues.IOQueue;
+import os.queues.QueueId;
+import vm.hardware.Clock;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Keeps thousands of processes blocked on IO at once and measures how long they really stay blocked.
+ * Every tick a batch of processes starts IO and everything that is due gets released.
+ * The old FIFO queue (only the head could leave) is simulated alongside with the same IO times for comparison.
+ * Run with: java -cp out bench.IOQueueBenchmark
+ */
+public class IOQueueBenchmark {
+    private static final int TICKS = 1_000;
+    private static final int[] BATCH_SIZES = {100, 1_000, 5_000};
+
+    public static void main(String[] args) {
+        System.out.println("IO queue with thousands of blocked processes");
+        for (int batch : BATCH_SIZES) {
+            heap(batch);
+            fifo(batch);
+        }
+    }
+
+    private static void heap(int batch) {
+        Clock clock = Clock.getInstance();
+        IOQueue ioQueue = new IOQueue();
+        Map<ProcessControlBlock, Integer> blockedAt = new HashMap<>();
+        long blockedTicks = 0;
+        long released = 0;
+        int maxBlocked = 0;
+        int pid = 0;
+
+        long start = System.nanoTime();
+        for (int tick = 0; tick < TICKS; tick++) {
+            for (int i = 0; i < batch; i++) {
+                ProcessControlBlock pcb = new ProcessControlBlock(++pid, "bench", 0);
+                pcb.setStatus(ProcessStatus.RUNNING, QueueId.RUNNING_QUEUE);
+                ioQueue.add(pcb);
+                blockedAt.put(pcb, clock.getTime());
+            }
+            maxBlocked = Math.max(maxBlocked, ioQueue.size());
+
+            clock.tick();
+            while (ioQueue.isReadyToLeave()) {
+                ProcessControlBlock pcb = ioQueue.poll();
+                blockedTicks += clock.getTime() - blockedAt.remove(pcb);
+                released++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("heap batch %5d: max blocked %,8d  avg blocked %6.2f ticks  %8.1f ns per process (block + release)%n",
+                batch, maxBlocked, (double) blockedTicks / released, (double) elapsed / ((long) TICKS * batch));
+    }
+
+    /**
+     * Same arrivals and the same 1-10 tick IO times, but only the head of the queue is allowed to leave
+     */
+    private static void fifo(int batch) {
+        Random random = new Random(batch);
+        ArrayDeque<int[]> queue = new ArrayDeque<>();
+        long blockedTicks = 0;
+        long released = 0;
+        int maxBlocked = 0;
+        int time = 0;
+
+        for (int tick = 0; tick < TICKS; tick++) {
+            for (int i = 0; i < batch; i++) {
+                queue.add(new int[]{time, time + random.nextInt(10) + 1});
+            }
+            maxBlocked = Math.max(maxBlocked, queue.size());
+
+            time++;
+            while (!queue.isEmpty() && queue.peek()[1] <= time) {
+                blockedTicks += time - queue.poll()[0];
+                released++;
+            }
+        }
+
+        System.out.printf("fifo batch %5d: max blocked %,8d  avg blocked %6.2f ticks%n",
+                batch, maxBlocked, (double) blockedTicks / released);
+    }
+}
@@ -0,0 +1,95 @@
+package bench;
+
+import os.OperatingSystem;
+import os.ProcessControlBlock;
+import util.Observer;
+import vm.VmInstance;
+import vm.hardware.Clock;
+import vm.hardware.Cpu;
+import vm.hardware.Memory;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Measures interpreter throughput with verbose mode off, for both the predecoded and the byte interpreter.
+ * The program mirrors the generated CPU cases: mostly ADD R0 R0 R1 with the odd MVI.
+ * Run with: java -cp out bench.InterpreterBenchmark
+ */
+public class InterpreterBenchmark {
+    private static final int PROGRAM_LENGTH = 200_000;
+    private static final int RUNS_PER_ROUND = 25;
+    private static final int ROUNDS = 5;
+
+    private static final com.sun.management.ThreadMXBean threadBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) {
+        byte[] program = program();
+        OperatingSystem os = VmInstance.current().getOperatingSystem();
+
+        System.out.println("Interpreter throughput, verbose off");
+        for (int round = 0; round < ROUNDS; round++) {
+            //first rounds are warmup
+            boolean print = round == ROUNDS - 1;
+            run(print, "predecoded", true, program, os);
+            run(print, "byte", false, program, os);
+        }
+    }
+
+    private static void run(boolean print, String name, boolean predecoded, byte[] program, OperatingSystem os) {
+        Memory memory = Memory.getInstance();
+        Cpu cpu = Cpu.getInstance();
+        Clock clock = Clock.getInstance();
+        cpu.setPredecodedMode(predecoded);
+
+        long elapsed = 0;
+        long allocated = 0;
+        long instructions = 0;
+        for (int i = 0; i < RUNS_PER_ROUND; i++) {
+            memory.clear();
+            ProcessControlBlock pcb = memory.load(program, new ProcessControlBlock(1, "bench", 0));
+
+            //stop right before END so terminating the process isn't part of the numbers
+            int stopAt = clock.getTime() + PROGRAM_LENGTH;
+            Observer stopper = time -> {
+                if (time == stopAt) {
+                    cpu.stopProcess();
+                }
+            };
+            clock.addObserver(stopper);
+
+            long allocatedBefore = threadBean.getThreadAllocatedBytes(Thread.currentThread().threadId());
+            long start = System.nanoTime();
+            cpu.run(pcb, os);
+            elapsed += System.nanoTime() - start;
+            allocated += threadBean.getThreadAllocatedBytes(Thread.currentThread().threadId()) - allocatedBefore;
+            instructions += PROGRAM_LENGTH;
+
+            clock.removeObserver(stopper);
+        }
+
+        if (print) {
+            double seconds = elapsed / 1_000_000_000.0;
+            System.out.printf("%-12s %,15.0f instructions/sec %10.1f bytes/instruction%n",
+                    name, instructions / seconds, (double) allocated / instructions);
+        }
+    }
+
+    private static byte[] program() {
+        int programSize = PROGRAM_LENGTH * 6;
+        ByteBuffer bb = ByteBuffer.allocate(12 + programSize).order(ByteOrder.LITTLE_ENDIAN);
+        bb.putInt(programSize).putInt(0).putInt(0);
+        for (int i = 0; i < PROGRAM_LENGTH; i++) {
+            if (i % 10 == 0) {
+                //MVI R1 1
+                bb.put((byte) 22).put((byte) 1).putInt(1);
+            } else {
+                //ADD R0 R0 R1
+                bb.put((byte) 16).put((byte) 0).put((byte) 0).put((byte) 1).put((byte) 0).put((byte) 0);
+            }
+        }
+        return bb.array();
+    }
+}
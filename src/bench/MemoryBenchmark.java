@@ -0,0 +1,148 @@
+package bench;
+
+import os.OperatingSystem;
+import os.ProcessControlBlock;
+import util.Observer;
+import vm.VmInstance;
+import vm.hardware.Clock;
+import vm.hardware.Cpu;
+import vm.hardware.Memory;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Measures how many bytes get allocated per million memory accesses.
+ * The legacy accessors are copied in here as the "before" numbers so both can be compared in the same run.
+ * Run with: java -cp out bench.MemoryBenchmark
+ */
+public class MemoryBenchmark {
+    private static final int MILLION = 1_000_000;
+    private static final int ROUNDS = 5;
+    private static final int MVI_PROGRAM_LENGTH = 200_000;
+
+    private static final com.sun.management.ThreadMXBean threadBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static final byte[] scratch = new byte[4096];
+    private static int sink;
+
+    private static long allocated;
+    private static long elapsed;
+
+    public static void main(String[] args) {
+        System.out.println("Bytes allocated per million operations (lower is better)");
+        for (int round = 0; round < ROUNDS; round++) {
+            //first rounds are warmup so the JIT gets a chance to remove what it can
+            boolean print = round == ROUNDS - 1;
+            report(print, "legacy getInt (copyOfRange + ByteBuffer)", MemoryBenchmark::legacyGetInts);
+            report(print, "legacy setInt (ByteBuffer.allocate)", MemoryBenchmark::legacySetInts);
+            report(print, "VarHandle getInt", MemoryBenchmark::getInts);
+            report(print, "VarHandle setInt", MemoryBenchmark::setInts);
+            runMviProgram();
+            print(print, "byte interpreter MVI");
+        }
+    }
+
+    private static void report(boolean print, String name, Runnable op) {
+        allocated = 0;
+        elapsed = 0;
+        measure(op);
+        print(print, name);
+    }
+
+    private static void print(boolean print, String name) {
+        if (print) {
+            System.out.printf("%-45s %,15d bytes %10.1f ms%n", name, allocated, elapsed / 1_000_000.0);
+        }
+    }
+
+    //adds to allocated and elapsed so a benchmark can leave its setup out of the numbers
+    private static void measure(Runnable op) {
+        long before = threadBean.getThreadAllocatedBytes(Thread.currentThread().threadId());
+        long start = System.nanoTime();
+        op.run();
+        elapsed += System.nanoTime() - start;
+        allocated += threadBean.getThreadAllocatedBytes(Thread.currentThread().threadId()) - before;
+    }
+
+    private static void legacyGetInts() {
+        int total = 0;
+        for (int i = 0; i < MILLION; i++) {
+            int location = i & 1023;
+            ByteBuffer bb = ByteBuffer.wrap(Arrays.copyOfRange(scratch, location, location + 4));
+            bb.order(ByteOrder.LITTLE_ENDIAN);
+            total += bb.getInt();
+        }
+        sink = total;
+    }
+
+    private static void legacySetInts() {
+        for (int i = 0; i < MILLION; i++) {
+            ByteBuffer bb = ByteBuffer.allocate(4);
+            bb.order(ByteOrder.LITTLE_ENDIAN);
+            bb.putInt(i);
+            System.arraycopy(bb.array(), 0, scratch, i & 1023, 4);
+        }
+    }
+
+    private static void getInts() {
+        Memory memory = Memory.getInstance();
+        int total = 0;
+        for (int i = 0; i < MILLION; i++) {
+            total += memory.readInt(i & 1023);
+        }
+        sink = total;
+    }
+
+    private static void setInts() {
+        Memory memory = Memory.getInstance();
+        for (int i = 0; i < MILLION; i++) {
+            memory.writeInt(i & 1023, i);
+        }
+    }
+
+    /**
+     * Runs a million MVI instructions through the byte interpreter, every one of them goes through Memory.getInt.
+     * The cpu is stopped right before END so process termination isn't part of the numbers.
+     */
+    private static void runMviProgram() {
+        Memory memory = Memory.getInstance();
+        Cpu cpu = Cpu.getInstance();
+        Clock clock = Clock.getInstance();
+        OperatingSystem os = VmInstance.current().getOperatingSystem();
+        byte[] program = mviProgram();
+        cpu.setPredecodedMode(false);
+        allocated = 0;
+        elapsed = 0;
+
+        for (int executed = 0; executed < MILLION; executed += MVI_PROGRAM_LENGTH) {
+            memory.clear();
+            ProcessControlBlock pcb = memory.load(program, new ProcessControlBlock(1, "bench", 0));
+            int stopAt = clock.getTime() + MVI_PROGRAM_LENGTH;
+            Observer stopper = time -> {
+                if (time == stopAt) {
+                    cpu.stopProcess();
+                }
+            };
+
+            clock.addObserver(stopper);
+            measure(() -> cpu.run(pcb, os));
+            clock.removeObserver(stopper);
+        }
+
+        cpu.setPredecodedMode(true);
+    }
+
+    private static byte[] mviProgram() {
+        int programSize = MVI_PROGRAM_LENGTH * 6;
+        ByteBuffer bb = ByteBuffer.allocate(12 + programSize).order(ByteOrder.LITTLE_ENDIAN);
+        bb.putInt(programSize).putInt(0).putInt(0);
+        for (int i = 0; i < MVI_PROGRAM_LENGTH; i++) {
+            bb.put((byte) 22).put((byte) (i % 11)).putInt(i);
+        }
+        return bb.array();
+    }
+}
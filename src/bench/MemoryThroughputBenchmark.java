@@ -0,0 +1,109 @@
+package bench;
+
+import os.ProcessControlBlock;
+import vm.VmInstance;
+import vm.hardware.Cpu;
+import vm.hardware.Memory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Memory.getInt and Memory.setInt throughput, getInt through paging too, and Memory.load for images from 64 KB up to 4 MB.
+ * Everything runs against a machine of its own so what the other benchmarks left in memory doesn't change the numbers.
+ * Run with: java -cp out bench.MemoryThroughputBenchmark [harness options]
+ */
+public class MemoryThroughputBenchmark {
+    private static final int BATCH = 1_000_000;
+    private static final int[] IMAGE_SIZES = {64 * 1024, 1024 * 1024, 4 * 1024 * 1024};
+    //memory holds 10 MB, clear it before the next image wouldn't fit
+    private static final int MEMORY_BUDGET = 9_000_000;
+
+    private static int sink;
+    private static int loadedBytes = MEMORY_BUDGET;
+    private static int nextPid = 1;
+
+    public static void main(String[] args) throws IOException {
+        Harness harness = new Harness(args);
+        register(harness);
+        System.exit(harness.run());
+    }
+
+    static void register(Harness harness) {
+        VmInstance vm = new VmInstance(new Random(0));
+        Memory memory = vm.getMemory();
+        Cpu cpu = vm.getCpu();
+
+        harness.add("memory.getInt", "ints", () -> getInts(memory, cpu));
+
+        //the same reads going through the page table and tlb, 4 KB is 16 pages so every lookup after the first pass hits
+        VmInstance pagedVm = new VmInstance(new Random(0));
+        Memory pagedMemory = pagedVm.getMemory();
+        Cpu pagedCpu = pagedVm.getCpu();
+        pagedMemory.setPaging(true, Memory.DEFAULT_PAGE_SIZE);
+        pagedCpu.start(pagedMemory.load(image(4096), new ProcessControlBlock(nextPid++, "bench", 0)));
+        harness.add("memory.getInt paged", "ints", () -> getInts(pagedMemory, pagedCpu));
+        harness.add("memory.setInt", "ints", () -> setInts(memory));
+        for (int size : IMAGE_SIZES) {
+            byte[] image = image(size);
+            harness.add("memory.load " + size / 1024 + " KB", "bytes", () -> {
+                if (loadedBytes + image.length > MEMORY_BUDGET) {
+                    memory.clear();
+                    loadedBytes = 0;
+                }
+            }, () -> load(memory, image));
+        }
+    }
+
+    /**
+     * Reads through the first 4 KB over and over the way the byte interpreter does, moving the pc along
+     */
+    private static long getInts(Memory memory, Cpu cpu) {
+        int total = 0;
+        for (int i = 0; i < BATCH; i++) {
+            if ((i & 1023) == 0) {
+                cpu.setProgramCounter(0);
+            }
+            total += memory.getInt(cpu);
+        }
+        sink += total;
+        return BATCH;
+    }
+
+    /**
+     * STR only reaches the first 128 bytes, the location is a byte
+     */
+    private static long setInts(Memory memory) {
+        for (int i = 0; i < BATCH; i++) {
+            memory.setInt((byte) (i & 0x7C), i);
+        }
+        return BATCH;
+    }
+
+    private static long load(Memory memory, byte[] image) {
+        ProcessControlBlock pcb = memory.load(image, new ProcessControlBlock(nextPid++, "bench", 0));
+        loadedBytes += image.length;
+        return pcb != null ? image.length : 0;
+    }
+
+    /**
+     * An image of ADD R0 R0 R1 instructions with the odd MVI, like the generated cases
+     */
+    private static byte[] image(int size) {
+        int instructions = size / 6;
+        ByteBuffer bb = ByteBuffer.allocate(12 + instructions * 6).order(ByteOrder.LITTLE_ENDIAN);
+        bb.putInt(instructions * 6).putInt(0).putInt(0);
+        for (int i = 0; i < instructions; i++) {
+            if (i % 10 == 0) {
+                //MVI R1 1
+                bb.put((byte) 22).put((byte) 1).putInt(1);
+            } else {
+                //ADD R0 R0 R1
+                bb.put((byte) 16).put((byte) 0).put((byte) 0).put((byte) 1).put((byte) 0).put((byte) 0);
+            }
+        }
+        return bb.array();
+    }
+}
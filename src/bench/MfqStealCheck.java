@@ -0,0 +1,56 @@
+package bench;
+
+import os.ProcessControlBlock;
+import os.ProcessStatus;
+import os.queues.MFQReadyQueue;
+import os.queues.QueueId;
+import vm.hardware.Clock;
+
+/**
+ * Two cores' multilevel feedback queues handing a process back and forth by work stealing. A process that gets
+ * stolen hasn't run since it was placed, so it has to land on the thief's queue at the level it already had,
+ * even when its burst history would move it the next time it's placed after running.
+ * The second steal comes right after a boost, which has to survive being stolen too.
+ * Exits with 1 if the level changes across a steal.
+ * Run with: java -cp out bench.MfqStealCheck
+ */
+public class MfqStealCheck {
+    private static final int[] QUANTUMS = {5, 10, 20};
+
+    public static void main(String[] args) {
+        Clock clock = Clock.getInstance();
+        MFQReadyQueue core0 = new MFQReadyQueue(QUANTUMS, 0);
+        MFQReadyQueue core1 = new MFQReadyQueue(QUANTUMS, 0);
+
+        ProcessControlBlock pcb = new ProcessControlBlock(1, "steal", 0);
+        pcb.setStatus(ProcessStatus.NEW, QueueId.JOB_QUEUE);
+        core0.addProcess(pcb);
+        //keep using up the quantum until it has been moved down to level 1, the next placement would move it again
+        while (pcb.getMfqLevel() < 1) {
+            core0.getNextProcess();
+            pcb.setStatus(ProcessStatus.RUNNING, QueueId.RUNNING_QUEUE);
+            clock.tick(QUANTUMS[0]);
+            core0.addProcess(pcb);
+        }
+        Double completion = pcb.getBurstCompletionPercentage();
+        if (completion == null || completion >= 0.8) {
+            System.out.println("FAILED: the burst history wouldn't move the process, nothing to check");
+            System.exit(1);
+        }
+
+        boolean kept = steal(core0, core1, 1);
+        core1.boost();
+        kept &= steal(core1, core0, 0);
+        System.exit(kept ? 0 : 1);
+    }
+
+    private static boolean steal(MFQReadyQueue victim, MFQReadyQueue thief, int level) {
+        ProcessControlBlock pcb = victim.stealProcess();
+        thief.addProcess(pcb);
+        boolean kept = pcb.getMfqLevel() == level && thief.getNextProcess() == pcb && thief.getQueueId() == QueueId.mfqLevel(level);
+        System.out.printf("%s: stolen at level %d, placed at level %d%n", kept ? "ok" : "FAILED", level + 1, pcb.getMfqLevel() + 1);
+        //back on the thief's queue for the next steal
+        thief.addProcess(pcb);
+        return kept;
+    }
+}
@@ -0,0 +1,103 @@
+package bench;
+
+import os.ProcessControlBlock;
+import os.ProcessStatus;
+import os.queues.IReadyQueue;
+import os.queues.MFQReadyQueue;
+import os.queues.QueueId;
+import os.queues.SRTFReadyQueue;
+import vm.hardware.Clock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Keeps a handful of long lived processes cycling through ready, running and IO until each has run
+ * hundreds of thousands of bursts, and times every block of cycles along the way.
+ * The queues only look at counters the process keeps up to date, so the time per cycle should stay flat
+ * however long the history gets. A queue that walked the timeline would get slower with every burst, so the run
+ * exits with 1 if the end of the run costs more than MAX_SLOWDOWN times the start. The end is the faster of the last
+ * two blocks and the start the fastest block of the first half, so one collection landing in a block doesn't fail
+ * the run. Every queue gets a warmup pass first so the start isn't paying for the JIT.
+ * Run with: java -cp out bench.ProcessStateBenchmark
+ */
+public class ProcessStateBenchmark {
+    private static final int PROCESSES = 4;
+    private static final int BURSTS_PER_PROCESS = 200_000;
+    private static final int REPORT_EVERY = 25_000;
+    //a walk over the history would be around 8 times slower at 200k bursts than at 25k
+    private static final double MAX_SLOWDOWN = 4;
+
+    public static void main(String[] args) {
+        System.out.println("Scheduler cost per burst as the process history grows");
+        boolean flat = check("mfq", () -> new MFQReadyQueue(5, 10));
+        flat &= check("srtf", SRTFReadyQueue::new);
+        System.exit(flat ? 0 : 1);
+    }
+
+    /**
+     * @return false if the cost per burst grew by more than MAX_SLOWDOWN over the run
+     */
+    private static boolean check(String name, Supplier<IReadyQueue> readyQueue) {
+        run(name, readyQueue.get(), 4 * REPORT_EVERY, false);
+        double[] windows = run(name, readyQueue.get(), BURSTS_PER_PROCESS, true);
+        double first = Double.MAX_VALUE;
+        for (int i = 0; i < windows.length / 2; i++) {
+            first = Math.min(first, windows[i]);
+        }
+        double last = Math.min(windows[windows.length - 2], windows[windows.length - 1]);
+        double slowdown = last / first;
+        if (slowdown > MAX_SLOWDOWN) {
+            System.out.printf("%-4s FAILED: the end of the run costs %.1fx the start, more than %.1fx%n", name, slowdown, MAX_SLOWDOWN);
+            return false;
+        }
+        System.out.printf("%-4s ok: the end of the run costs %.1fx the start%n", name, slowdown);
+        return true;
+    }
+
+    /**
+     * @return the ns per burst of every block of REPORT_EVERY bursts
+     */
+    private static double[] run(String name, IReadyQueue readyQueue, int burstsPerProcess, boolean report) {
+        Clock clock = Clock.getInstance();
+        List<ProcessControlBlock> processes = new ArrayList<>();
+        for (int pid = 1; pid <= PROCESSES; pid++) {
+            ProcessControlBlock pcb = new ProcessControlBlock(pid, "bench", 0);
+            pcb.setStatus(ProcessStatus.NEW, QueueId.JOB_QUEUE);
+            readyQueue.addProcess(pcb);
+            processes.add(pcb);
+        }
+
+        double[] windows = new double[burstsPerProcess / REPORT_EVERY];
+        long start = System.nanoTime();
+        for (int burst = 1; burst <= burstsPerProcess; burst++) {
+            for (int i = 0; i < PROCESSES; i++) {
+                ProcessControlBlock pcb = readyQueue.getNextProcess();
+                pcb.setStatus(ProcessStatus.RUNNING, QueueId.RUNNING_QUEUE);
+                clock.tick(1 + burst % 3);
+                if (burst % 2 == 0) {
+                    //every other burst ends in IO, the rest are preempted
+                    pcb.setStatus(ProcessStatus.WAITING, QueueId.IO_QUEUE);
+                    clock.tick();
+                }
+                readyQueue.addProcess(pcb);
+            }
+
+            if (burst % REPORT_EVERY == 0) {
+                double perBurst = (double) (System.nanoTime() - start) / ((long) REPORT_EVERY * PROCESSES);
+                windows[burst / REPORT_EVERY - 1] = perBurst;
+                if (report) {
+                    int history = 0;
+                    for (ProcessControlBlock pcb : processes) {
+                        history += pcb.getTimeLine().size();
+                    }
+                    System.out.printf("%-4s %,8d bursts per process: %7.1f ns per burst  %,d timeline entries in total%n",
+                            name, burst, perBurst, history);
+                }
+                start = System.nanoTime();
+            }
+        }
+        return windows;
+    }
+}
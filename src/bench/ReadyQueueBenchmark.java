@@ -0,0 +1,63 @@
+package bench;
+
+import os.ProcessControlBlock;
+import os.ProcessStatus;
+import os.queues.FCFSReadyQueue;
+import os.queues.IReadyQueue;
+import os.queues.MFQReadyQueue;
+import os.queues.QueueId;
+import os.queues.RRReadyQueue;
+
+import java.io.IOException;
+import java.util.function.Supplier;
+
+/**
+ * IReadyQueue getNextProcess and addProcess with 10 up to 100k processes waiting, for fcfs, rr and mfq.
+ * An operation is one dispatch: take the next process, mark it running and put it back, so the queue stays the same size.
+ * Every call starts from a freshly filled queue (not measured) so the process histories don't grow without end.
+ * Run with: java -cp out bench.ReadyQueueBenchmark [harness options]
+ */
+public class ReadyQueueBenchmark {
+    private static final int[] SIZES = {10, 100, 1_000, 10_000, 100_000};
+    //small queues go round many times per call, big ones once
+    private static final int MIN_DISPATCHES = 100_000;
+
+    public static void main(String[] args) throws IOException {
+        Harness harness = new Harness(args);
+        register(harness);
+        System.exit(harness.run());
+    }
+
+    static void register(Harness harness) {
+        add(harness, "fcfs", FCFSReadyQueue::new);
+        add(harness, "rr", () -> new RRReadyQueue(5));
+        add(harness, "mfq", () -> new MFQReadyQueue(5, 10));
+    }
+
+    private static void add(Harness harness, String name, Supplier<IReadyQueue> factory) {
+        for (int size : SIZES) {
+            IReadyQueue[] queue = new IReadyQueue[1];
+            int dispatches = Math.max(size, MIN_DISPATCHES);
+            harness.add("readyqueue " + name + " " + size, "dispatches",
+                    () -> queue[0] = fill(factory.get(), size), () -> dispatch(queue[0], dispatches));
+        }
+    }
+
+    private static IReadyQueue fill(IReadyQueue queue, int size) {
+        for (int pid = 1; pid <= size; pid++) {
+            ProcessControlBlock pcb = new ProcessControlBlock(pid, "bench", 0);
+            pcb.setStatus(ProcessStatus.NEW, QueueId.JOB_QUEUE);
+            queue.addProcess(pcb);
+        }
+        return queue;
+    }
+
+    private static long dispatch(IReadyQueue queue, int dispatches) {
+        for (int i = 0; i < dispatches; i++) {
+            ProcessControlBlock pcb = queue.getNextProcess();
+            pcb.setStatus(ProcessStatus.RUNNING, QueueId.RUNNING_QUEUE);
+            queue.addProcess(pcb);
+        }
+        return dispatches;
+    }
+}
@@ -1,20 +1,40 @@
 package os;
 
+import os.queues.CFSReadyQueue;
 import os.queues.FCFSReadyQueue;
 import os.queues.MFQReadyQueue;
+import os.queues.QueueId;
 import os.queues.RRReadyQueue;
+import os.queues.SJFReadyQueue;
+import os.queues.SRTFReadyQueue;
+import os.util.Assembler;
+import os.util.Distribution;
+import os.util.ImageCache;
+import os.util.LatencyMetrics;
+import os.util.LogLevel;
+import os.util.LogSubsystem;
 import os.util.Logging;
+import os.util.MetricsTracker;
+import os.util.ResultsStore;
+import os.util.TraceConverter;
+import os.util.TraceRecorder;
 import os.util.VerboseModeLogger;
+import os.util.WorkloadGenerator;
+import vm.VmInstance;
 import vm.hardware.Clock;
 import vm.hardware.Cpu;
 import vm.hardware.Memory;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -22,66 +42,485 @@ import java.util.Set;
  * Think like an interface that allows them to talk to each other
  */
 public class OperatingSystem implements Logging {
-    private static final Memory memory = Memory.getInstance();
-    private static final Cpu cpu = Cpu.getInstance();
-    private static final Clock clock = Clock.getInstance();
+    private final VmInstance vm = VmInstance.current();
+    private final Memory memory = Memory.getInstance();
+    //core 0, the only core unless more are added with setCores
+    private final Cpu cpu = Cpu.getInstance();
+    private final Clock clock = Clock.getInstance();
     //this will eventually be instantiated based on the input from the user
     //this scheduler will eventually need to be able to update the scheduling algorithm
     private final Scheduler scheduler = new Scheduler(this);
 
-    public void startShell() {
+    private static final long TEST_SEED = 6510;
+
+    //when false runs don't write metrics/gantt files or print their instruction rate, used by parallel sweeps
+    private boolean reporting = true;
+    //the policy set with setsched, results are stored under it
+    private String policy = "mfq";
+    //opened on the first run that stores its results and kept open from then on
+    private ResultsStore resultsStore;
+
+    public OperatingSystem() {
         clock.addObserver(scheduler);
+    }
+
+    public void startShell() {
         new Shell(this).startShell();
     }
 
     //Making the express decision that the quantum values come after the scheduling algorithm
-    void setSchedule(String[] inputs) {
+    public void setSchedule(String[] inputs) {
         //TODO: add error checking for inputs
         //TODO: make enums/variables for the scheduling algorithms
         switch (inputs[1]) {
             case "fcfs":
-                scheduler.setReadyQueue(new FCFSReadyQueue());
+                scheduler.setReadyQueue(FCFSReadyQueue::new);
                 break;
             case "rr":
-                scheduler.setReadyQueue(new RRReadyQueue(Integer.parseInt(inputs[2])));
+                int quantum = Integer.parseInt(inputs[2]);
+                scheduler.setReadyQueue(() -> new RRReadyQueue(quantum));
                 break;
             case "mfq":
-                scheduler.setReadyQueue(new MFQReadyQueue(Integer.parseInt(inputs[2]), Integer.parseInt(inputs[3])));
+                if (!setMfqSchedule(inputs)) {
+                    return;
+                }
+                break;
+            case "sjf":
+                Double sjfAlpha = getAlpha(inputs);
+                if (sjfAlpha == null) {
+                    return;
+                }
+                scheduler.setReadyQueue(() -> new SJFReadyQueue(sjfAlpha));
+                break;
+            case "srtf":
+                Double srtfAlpha = getAlpha(inputs);
+                if (srtfAlpha == null) {
+                    return;
+                }
+                scheduler.setReadyQueue(() -> new SRTFReadyQueue(srtfAlpha));
+                break;
+            case "cfs":
+                int targetLatency;
+                int minGranularity;
+                try {
+                    targetLatency = inputs.length > 2 ? Integer.parseInt(inputs[2]) : CFSReadyQueue.DEFAULT_TARGET_LATENCY;
+                    minGranularity = inputs.length > 3 ? Integer.parseInt(inputs[3]) : CFSReadyQueue.DEFAULT_MIN_GRANULARITY;
+                } catch (NumberFormatException e) {
+                    logError("Invalid cfs input: " + e.getMessage());
+                    return;
+                }
+                if (targetLatency < 1 || minGranularity < 1) {
+                    logError("cfs target latency and minimum granularity have to be at least 1");
+                    return;
+                }
+                scheduler.setReadyQueue(() -> new CFSReadyQueue(targetLatency, minGranularity));
                 break;
             default:
                 logError("Unknown scheduling algorithm");
+                return;
+        }
+        policy = inputs[1];
+    }
+
+    /**
+     * mfq takes a quantum for every round robin level, the fcfs level goes below them.
+     * They can be followed by "boost" and how often to put everything back on the top level.
+     *
+     * @return false if the inputs were rejected and the scheduler was left as it was
+     */
+    private boolean setMfqSchedule(String[] inputs) {
+        List<Integer> quantums = new ArrayList<>();
+        int boostPeriod = 0;
+        try {
+            for (int i = 2; i < inputs.length; i++) {
+                if (inputs[i].equals("boost") && i + 1 < inputs.length) {
+                    boostPeriod = Integer.parseInt(inputs[++i]);
+                } else {
+                    quantums.add(Integer.parseInt(inputs[i]));
+                }
+            }
+        } catch (NumberFormatException e) {
+            logError("Invalid mfq input: " + e.getMessage());
+            return false;
+        }
+
+        if (quantums.isEmpty() || quantums.size() >= QueueId.MAX_MFQ_LEVELS) {
+            logError("mfq needs between 1 and " + (QueueId.MAX_MFQ_LEVELS - 1) + " quantums");
+            return false;
+        }
+
+        int[] levelQuantums = quantums.stream().mapToInt(Integer::intValue).toArray();
+        int boost = boostPeriod;
+        scheduler.setReadyQueue(() -> new MFQReadyQueue(levelQuantums, boost));
+        return true;
+    }
+
+    /**
+     * The burst prediction weight is optional and comes right after the algorithm
+     *
+     * @return null if it isn't a number between 0 and 1
+     */
+    private Double getAlpha(String[] inputs) {
+        if (inputs.length < 3) {
+            return SJFReadyQueue.DEFAULT_ALPHA;
+        }
+
+        try {
+            double alpha = Double.parseDouble(inputs[2]);
+            if (alpha >= 0 && alpha <= 1) {
+                return alpha;
+            }
+        } catch (NumberFormatException e) {
+            //reported below, same as a number out of range
+        }
+        logError("alpha has to be a number between 0 and 1: " + inputs[2]);
+        return null;
+    }
+
+    public void setNice(String[] inputs) {
+        if (inputs.length < 3) {
+            logError("Not enough inputs provided");
+            return;
+        }
+
+        try {
+            scheduler.setNice(inputs[1], Integer.parseInt(inputs[2]));
+        } catch (NumberFormatException e) {
+            logError("Invalid nice value: " + inputs[2]);
+        }
+    }
+
+    /**
+     * Prints the gantt chart of one process from the last run, or writes it to a file if one is given
+     */
+    void processGanttChart(String[] inputs) {
+        if (inputs.length < 2) {
+            logError("Not enough inputs provided");
+            return;
+        }
+
+        ProcessControlBlock pcb;
+        try {
+            pcb = scheduler.getCurrentProcess(Integer.parseInt(inputs[1]));
+        } catch (NumberFormatException e) {
+            logError("Invalid pid: " + inputs[1]);
+            return;
+        }
+        if (pcb == null) {
+            logError("No process " + inputs[1] + " in the last run");
+            return;
+        }
+
+        if (inputs.length < 3) {
+            System.out.println(pcb.ganttChart());
+            return;
+        }
+
+        try {
+            Files.writeString(Paths.get(inputs[2]), pcb.ganttChart());
+            System.out.println("Gantt chart for process " + pcb.getPid() + " saved to " + inputs[2]);
+        } catch (IOException e) {
+            logError("Error writing gantt chart: " + e.getMessage());
+        }
+    }
+
+    /**
+     * trace start <file> [records], trace stop, or trace export <trace file> <json file>
+     */
+    void trace(String[] inputs) {
+        if (inputs.length < 2) {
+            logError("Not enough inputs provided");
+            return;
+        }
+
+        TraceRecorder recorder = vm.getTraceRecorder();
+        try {
+            switch (inputs[1]) {
+                case "start":
+                    if (inputs.length < 3) {
+                        logError("Not enough inputs provided");
+                        return;
+                    }
+                    int capacity = inputs.length > 3 ? Integer.parseInt(inputs[3]) : TraceRecorder.DEFAULT_CAPACITY;
+                    recorder.start(Paths.get(inputs[2]), capacity);
+                    break;
+                case "stop":
+                    recorder.stop();
+                    System.out.println("Trace stopped after " + recorder.getWritten() + " records");
+                    break;
+                case "export":
+                    if (inputs.length < 4) {
+                        logError("Not enough inputs provided");
+                        return;
+                    }
+                    int events = TraceConverter.toChromeJson(Paths.get(inputs[2]), Paths.get(inputs[3]));
+                    System.out.println("Wrote " + events + " events to " + inputs[3]);
+                    break;
+                default:
+                    logError("Unknown trace command: " + inputs[1]);
+                    break;
+            }
+        } catch (NumberFormatException e) {
+            logError("Invalid trace size: " + inputs[3]);
+        } catch (IllegalArgumentException | IOException e) {
+            logError("Trace failed: " + e.getMessage());
+        }
+    }
+
+    void setCpuMode(String[] inputs) {
+        if (inputs.length < 2) {
+            logError("Not enough inputs provided");
+            return;
+        }
+
+        boolean predecoded;
+        switch (inputs[1]) {
+            case "predecoded":
+                predecoded = true;
+                break;
+            case "byte":
+                predecoded = false;
                 break;
+            default:
+                logError("Unknown cpu mode");
+                return;
+        }
+
+        for (int core = 0; core < vm.getCoreCount(); core++) {
+            vm.getCpu(core).setPredecodedMode(predecoded);
         }
     }
 
-    void assembleFile(String filePath, String loaderAddress, boolean mac) {
-        final String macPath = "files/osx_mac";
-        final String windowsPath = "files/osx.exe";
+    void setCores(String[] inputs) {
+        if (inputs.length < 2) {
+            logError("Not enough inputs provided");
+            return;
+        }
 
-        String path = mac ? macPath : windowsPath;
+        int cores;
         try {
-            ProcessBuilder processBuilder = new ProcessBuilder(path, filePath, loaderAddress);
-            processBuilder.redirectErrorStream(true);
-            Process process = processBuilder.start();
+            cores = Integer.parseInt(inputs[1]);
+        } catch (NumberFormatException e) {
+            logError("Invalid number of cores: " + inputs[1]);
+            return;
+        }
+
+        if (cores < 1) {
+            logError("Need at least one core");
+            return;
+        }
+
+        setCores(cores);
+    }
 
-            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                System.out.println(line);
+    public void setCores(int cores) {
+        vm.setCoreCount(cores);
+        scheduler.setCores(cores);
+    }
+
+    public void setClockMode(String[] inputs) {
+        if (inputs.length < 2) {
+            logError("Not enough inputs provided");
+            return;
+        }
+
+        switch (inputs[1]) {
+            case "event":
+                scheduler.setEventDriven(true);
+                break;
+            case "tick":
+                scheduler.setEventDriven(false);
+                break;
+            default:
+                logError("Unknown clock mode");
+                break;
+        }
+    }
+
+    /**
+     * memmode flat [compaction step]|paged [page size] switches how programs are laid out in memory, which clears it.
+     * memmode on its own prints the frame and tlb numbers
+     */
+    void setMemoryMode(String[] inputs) {
+        if (inputs.length < 2) {
+            System.out.println(memory.getStats());
+            return;
+        }
+
+        try {
+            switch (inputs[1]) {
+                case "paged":
+                    memory.setPaging(true, inputs.length > 2 ? Integer.parseInt(inputs[2]) : Memory.DEFAULT_PAGE_SIZE);
+                    break;
+                case "flat":
+                    memory.setCompactionStep(inputs.length > 2 ? Integer.parseInt(inputs[2]) : Memory.DEFAULT_COMPACTION_STEP);
+                    memory.setPaging(false, 0);
+                    break;
+                default:
+                    logError("Unknown memory mode");
+                    return;
             }
+        } catch (IllegalArgumentException e) {
+            //NumberFormatException included
+            logError("Invalid memory mode input: " + e.getMessage());
+            return;
+        }
+        System.out.println(memory.getStats());
+    }
+
+    /**
+     * memsize <size> gives the machine that much memory, in bytes or with a KB, MB or GB suffix, which clears it
+     */
+    void setMemorySize(String[] inputs) {
+        if (inputs.length < 2) {
+            logError("Not enough inputs provided");
+            return;
+        }
 
-            int exitCode = process.waitFor();
-            log("Assembled with code: " + exitCode);
-        } catch (Exception e) {
-            logError("Error running osx: " + e.getMessage());
+        String size = inputs[1].toUpperCase(Locale.ROOT);
+        long multiplier = 1;
+        if (size.endsWith("KB") || size.endsWith("MB") || size.endsWith("GB")) {
+            multiplier = size.endsWith("KB") ? 1L << 10 : size.endsWith("MB") ? 1L << 20 : 1L << 30;
+            size = size.substring(0, size.length() - 2);
         }
 
+        try {
+            long bytes = Long.parseLong(size) * multiplier;
+            if (bytes > Integer.MAX_VALUE) {
+                logError("Memory can be at most " + Integer.MAX_VALUE + " bytes, addresses are ints");
+                return;
+            }
+            memory.setSize((int) bytes);
+        } catch (IllegalArgumentException e) {
+            //NumberFormatException included
+            logError("Invalid memory size: " + e.getMessage());
+            return;
+        }
+        System.out.println(memory.getStats());
     }
 
+    void setLogLevel(String[] inputs) {
+        if (inputs.length < 3) {
+            logError("Not enough inputs provided");
+            return;
+        }
 
+        LogLevel level;
+        try {
+            level = LogLevel.valueOf(inputs[2].toUpperCase());
+        } catch (IllegalArgumentException e) {
+            logError("Unknown log level: " + inputs[2]);
+            return;
+        }
+
+        VerboseModeLogger logger = VerboseModeLogger.getInstance();
+        if (inputs[1].equals("all")) {
+            for (LogSubsystem subsystem : LogSubsystem.values()) {
+                logger.setLevel(subsystem, level);
+            }
+            return;
+        }
+
+        try {
+            logger.setLevel(LogSubsystem.valueOf(inputs[1].toUpperCase()), level);
+        } catch (IllegalArgumentException e) {
+            logError("Unknown log subsystem: " + inputs[1]);
+        }
+    }
+
+    /**
+     * osx <file or directory> <loader address>, assembles in the JVM and writes the .osx images next to the sources.
+     * A directory has all its .asm files assembled in parallel.
+     */
+    void assemble(String[] inputs) {
+        if (inputs.length < 3) {
+            logError("Not enough inputs provided");
+            return;
+        }
+
+        int loaderAddress;
+        try {
+            loaderAddress = Integer.parseInt(inputs[2]);
+        } catch (NumberFormatException e) {
+            logError("Invalid loader address: " + inputs[2]);
+            return;
+        }
+
+        Path source = Paths.get(inputs[1]);
+        if (!Files.exists(source)) {
+            logError("No such file or directory: " + source);
+            return;
+        }
+
+        try {
+            if (!Files.isDirectory(source)) {
+                Path image = Assembler.assembleFile(source, loaderAddress);
+                System.out.println("Assembled " + source + " into " + image);
+                return;
+            }
+
+            long start = System.nanoTime();
+            List<Assembler.Result> results = Assembler.assembleDirectory(source, loaderAddress, Runtime.getRuntime().availableProcessors());
+            int assembled = 0;
+            for (Assembler.Result result : results) {
+                if (result.getError() != null) {
+                    logError("Error assembling " + result.getError());
+                } else {
+                    assembled++;
+                }
+            }
+            System.out.printf("Assembled %d of %d files in %s in %.1f ms%n",
+                    assembled, results.size(), source, (System.nanoTime() - start) / 1_000_000.0);
+        } catch (IllegalArgumentException e) {
+            logError("Error assembling " + e.getMessage());
+        } catch (IOException e) {
+            logError("Error assembling " + source + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * imagecache prints the program image cache numbers, imagecache clear empties it and
+     * imagecache size <bytes> sets how much it keeps
+     */
+    void imageCache(String[] inputs) {
+        ImageCache cache = ImageCache.getShared();
+        if (inputs.length > 1) {
+            try {
+                switch (inputs[1]) {
+                    case "clear":
+                        cache.clear();
+                        break;
+                    case "size":
+                        if (inputs.length < 3) {
+                            logError("Not enough inputs provided");
+                            return;
+                        }
+                        cache.setCapacity(Long.parseLong(inputs[2]));
+                        break;
+                    default:
+                        logError("Unknown image cache command");
+                        return;
+                }
+            } catch (IllegalArgumentException e) {
+                //NumberFormatException included
+                logError("Invalid image cache size: " + e.getMessage());
+                return;
+            }
+        }
+        System.out.println(cache);
+    }
+
+    /**
+     * Reads an .osx image, or assembles an .asm file straight into one without writing it out.
+     * Both go through the image cache, so a file is only read again once it changes
+     */
     private byte[] readProgram(String filePath) {
         try {
-            return Files.readAllBytes(Paths.get(filePath));
+            return ImageCache.getShared().get(Paths.get(filePath));
+        } catch (IllegalArgumentException e) {
+            logError((filePath.toLowerCase().endsWith(Assembler.SOURCE_EXTENSION) ? "Error assembling " : "Invalid program ")
+                    + e.getMessage());
+            return null;
         } catch (IOException e) {
             logError("Error reading file: " + ": " + e.getMessage());
             return null;
@@ -94,27 +533,52 @@ public class OperatingSystem implements Logging {
             return null;
         }
 
-        byte[] program = readProgram(pcb.getFilePath());
+        byte[] program = pcb.getImage() != null ? pcb.getImage() : readProgram(pcb.getFilePath());
         if (program == null) {
             logError("Process doesn't exist");
             return null;
         }
         pcb = memory.load(program, pcb);
+        if (pcb != null) {
+            pcb.releaseImage();
+        }
         return pcb;
     }
 
     public void runProcess(ProcessControlBlock pcb) {
         //if null ready queue is empty just return.
         if (pcb != null) {
-            cpu.run(pcb, this);
+            vm.getCpu(pcb.getCore()).run(pcb, this);
         }
     }
 
+    /**
+     * Puts the process on its core without running it, the scheduler steps the cores itself
+     */
+    void startProcess(ProcessControlBlock pcb) {
+        vm.getCpu(pcb.getCore()).start(pcb);
+    }
+
+    /**
+     * @return false if the core stopped running its process
+     */
+    boolean stepProcess(int core) {
+        return vm.getCpu(core).step(this);
+    }
+
+    boolean isCoreStalled(int core) {
+        return vm.getCpu(core).isStalled();
+    }
+
+    long getBusyTicks(int core) {
+        return vm.getCpu(core).getBusyTicks();
+    }
+
     boolean isVerboseMode(String[] inputs) {
         return inputs[inputs.length - 1].equals("-v");
     }
 
-    void schedule(String[] inputs) {
+    public void schedule(String[] inputs) {
         if (inputs.length < 3) {
             logError("Not enough inputs provided");
             return;
@@ -130,8 +594,175 @@ public class OperatingSystem implements Logging {
             ProcessControlBlock pcb = new ProcessControlBlock(scheduler.getNewPid(), inputs[i], Integer.parseInt(inputs[i + 1]));
             scheduler.addToJobQueue(pcb);
         }
+        processJobs(String.join(" ", inputs), true);
+    }
+
+    /**
+     * generate <processes> [seed n] [io fraction] [length distribution] [arrival distribution]
+     * Runs a synthetic workload built straight into memory, distributions are written 50, 10-200 or exp:100.
+     * Arrivals are the ticks between one process and the next and start from the current time.
+     */
+    void generate(String[] inputs) {
+        if (inputs.length < 2) {
+            logError("Not enough inputs provided");
+            return;
+        }
+
+        WorkloadGenerator generator;
+        try {
+            generator = new WorkloadGenerator(Integer.parseInt(inputs[1]), getOption(inputs, "seed", TEST_SEED));
+            for (int i = 2; i + 1 < inputs.length; i += 2) {
+                switch (inputs[i]) {
+                    case "seed":
+                        break;
+                    case "io":
+                        generator.setIoBoundFraction(Double.parseDouble(inputs[i + 1]));
+                        break;
+                    case "length":
+                        generator.setLength(Distribution.parse(inputs[i + 1]));
+                        break;
+                    case "arrival":
+                        generator.setInterArrival(Distribution.parse(inputs[i + 1]));
+                        break;
+                    default:
+                        logError("Unknown generate option: " + inputs[i]);
+                        return;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            //NumberFormatException included
+            logError("Invalid generate input: " + e.getMessage());
+            return;
+        }
+
+        long start = System.nanoTime();
+        List<WorkloadGenerator.Program> programs = generator.generate(clock.getTime());
+        log(LogSubsystem.SYSTEM, LogLevel.INFO, () -> "Generated " + generator + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+
+        long needed = 0;
+        for (WorkloadGenerator.Program program : programs) {
+            needed += memory.getFootprint(program.getCodeSize());
+        }
+        if (needed > memory.getAvailable()) {
+            logError("Generated workload needs " + needed + " bytes but memory only has " + memory.getAvailable()
+                    + " free, generate fewer or shorter programs");
+            return;
+        }
+
+        scheduler.clearCurrentProcesses();
+        for (WorkloadGenerator.Program program : programs) {
+            scheduler.addToJobQueue(new ProcessControlBlock(scheduler.getNewPid(), program.getName(), program.getArrival(), program.getImage()));
+        }
+        //a chart with thousands of processes in a row isn't readable, and is exactly the file churn this avoids
+        processJobs(String.join(" ", inputs), false);
+    }
+
+    private static long getOption(String[] inputs, String option, long defaultValue) {
+        for (int i = 2; i + 1 < inputs.length; i += 2) {
+            if (inputs[i].equals(option)) {
+                return Long.parseLong(inputs[i + 1]);
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Runs everything in the job queue, then reports on the run and stores its results
+     */
+    private void processJobs(String workload, boolean ganttChart) {
+        long instructionsBefore = getInstructionsExecuted();
+        long startTime = System.nanoTime();
         scheduler.processJobs();
-        scheduler.systemGanttChart();
+
+        if (reporting) {
+            printInstructionRate(getInstructionsExecuted() - instructionsBefore, System.nanoTime() - startTime);
+            scheduler.getLastMetrics().printMetrics();
+            if (ganttChart) {
+                scheduler.systemGanttChart();
+            }
+            storeResults(workload);
+        }
+    }
+
+    private void storeResults(String workload) {
+        try {
+            ResultsStore store = getResultsStore();
+            store.append(workload, policy, vm.getCoreCount(), scheduler.getLastMetrics());
+            store.flush();
+        } catch (IOException e) {
+            logError("Error storing results: " + e.getMessage());
+        }
+    }
+
+    private ResultsStore getResultsStore() throws IOException {
+        if (resultsStore == null) {
+            resultsStore = new ResultsStore(Paths.get(ResultsStore.DEFAULT_FILE));
+        }
+        return resultsStore;
+    }
+
+    /**
+     * surface <column> [policy] [file], averages a result column over the workloads for every quantum pair
+     */
+    void surface(String[] inputs) {
+        if (inputs.length < 2) {
+            logError("Not enough inputs provided, columns are " + ResultsStore.getColumns());
+            return;
+        }
+
+        String surfacePolicy = inputs.length > 2 ? inputs[2] : "mfq";
+        try {
+            if (resultsStore != null) {
+                resultsStore.flush();
+            }
+            Path file = Paths.get(ResultsStore.DEFAULT_FILE);
+            if (!Files.exists(file)) {
+                logError("No results yet, run test or execute first");
+                return;
+            }
+
+            String table = ResultsStore.surface(file, inputs[1], surfacePolicy);
+            if (inputs.length < 4) {
+                System.out.print(table);
+                return;
+            }
+            Files.writeString(Paths.get(inputs[3]), table);
+            System.out.println("Surface of " + inputs[1] + " saved to " + inputs[3]);
+        } catch (IllegalArgumentException e) {
+            logError(e.getMessage() + ", columns are " + ResultsStore.getColumns());
+        } catch (IOException e) {
+            logError("Error reading results: " + e.getMessage());
+        }
+    }
+
+    public void setReporting(boolean reporting) {
+        this.reporting = reporting;
+    }
+
+    public MetricsTracker getLastMetrics() {
+        return scheduler.getLastMetrics();
+    }
+
+    /**
+     * @return every process from the last run, their timelines hold everything that happened to them
+     */
+    public List<ProcessControlBlock> getLastProcesses() {
+        return scheduler.getCurrentProcesses();
+    }
+
+    private long getInstructionsExecuted() {
+        long instructions = 0;
+        for (int core = 0; core < vm.getCoreCount(); core++) {
+            instructions += vm.getCpu(core).getInstructionsExecuted();
+        }
+        return instructions;
+    }
+
+    private void printInstructionRate(long instructions, long nanos) {
+        double seconds = nanos / 1_000_000_000.0;
+        String mode = cpu.isPredecodedMode() ? "predecoded" : "byte";
+        System.out.printf("Executed %d instructions in %.3f ms (%.0f instructions/sec, %s interpreter)%n",
+                instructions, seconds * 1000, seconds > 0 ? instructions / seconds : 0, mode);
     }
 
 
@@ -162,52 +793,108 @@ public class OperatingSystem implements Logging {
         scheduler.addToTerminatedQueue(pcb);
     }
 
-    void transitionProcess(ProcessControlBlock next) {
-        cpu.transition(next);
+    void transitionProcess(int core, ProcessControlBlock next) {
+        vm.getCpu(core).transition(next);
     }
 
     public void addToIOQueue(ProcessControlBlock pcb) {
         scheduler.addToIOQueue(pcb);
     }
 
-    public void stopProcess() {
-        cpu.stopProcess();
+    public void stopProcess(int core) {
+        vm.getCpu(core).stopProcess();
     }
 
-    public void testStuff() {
-        String one = "execute files/cases/s-cpu-1.osx 1 files/cases/s-cpu-2.osx 1 files/cases/s-cpu-3.osx 1";
-        String two = "execute files/cases/s-io-1.osx 1 files/cases/s-io-2.osx 1 files/cases/s-io-3.osx 1";
-        String three = "execute files/cases/m-cpu-1.osx 1 files/cases/m-cpu-2.osx 1 files/cases/m-cpu-3.osx 1";
-        String four = "execute files/cases/m-io-1.osx 1 files/cases/m-io-2.osx 1 files/cases/m-io-3.osx 1";
-        String five = "execute files/cases/l-cpu-1.osx 1 files/cases/l-cpu-2.osx 1 files/cases/l-cpu-3.osx 1";
-        String six = "execute files/cases/l-io-1.osx 1 files/cases/l-io-2.osx 1 files/cases/l-io-3.osx 1";
+    /**
+     * Runs the quantum surface sweep: every quantum pair against all six workloads.
+     * Every result is added to the results store, which is what the surface command reads.
+     *
+     * @param parallel fan the configurations out over every core instead of running them one after another
+     * @param resume   skip the configurations the results store already has
+     */
+    public void testStuff(boolean parallel, boolean resume) {
+        String[] workloads = {
+                "execute files/cases/s-cpu-1.osx 1 files/cases/s-cpu-2.osx 1 files/cases/s-cpu-3.osx 1",
+                "execute files/cases/s-io-1.osx 1 files/cases/s-io-2.osx 1 files/cases/s-io-3.osx 1",
+                "execute files/cases/m-cpu-1.osx 1 files/cases/m-cpu-2.osx 1 files/cases/m-cpu-3.osx 1",
+                "execute files/cases/m-io-1.osx 1 files/cases/m-io-2.osx 1 files/cases/m-io-3.osx 1",
+                "execute files/cases/l-cpu-1.osx 1 files/cases/l-cpu-2.osx 1 files/cases/l-cpu-3.osx 1",
+                "execute files/cases/l-io-1.osx 1 files/cases/l-io-2.osx 1 files/cases/l-io-3.osx 1"
+        };
+
+        ResultsStore store;
+        try {
+            store = getResultsStore();
+        } catch (IOException e) {
+            logError("Error opening results: " + e.getMessage());
+            return;
+        }
 
-        String[] inputs1 = one.split(" ");
-        String[] inputs2 = two.split(" ");
-        String[] inputs3 = three.split(" ");
-        String[] inputs4 = four.split(" ");
-        String[] inputs5 = five.split(" ");
-        String[] inputs6 = six.split(" ");
+        //hashing reads every program, so do each workload once
+        Map<String, String> workloadHashes = new HashMap<>();
+        for (String workload : workloads) {
+            workloadHashes.put(workload, ResultsStore.workloadHash(workload));
+        }
 
         // 🔹 Quantum pairs optimized for clean surface plots
-        Set<String> quantumPairs = getQuantumPairs();
-
-        // ✅ Iterate over unique quantum pairs and execute tests
-        for (String qp : quantumPairs) {
+        List<SweepRunner.Configuration> configurations = new ArrayList<>();
+        int skipped = 0;
+        for (String qp : getQuantumPairs()) {
             String[] split = qp.split(",");
             int q1 = Integer.parseInt(split[0]);
             int q2 = Integer.parseInt(split[1]);
 
-            System.out.println("Testing with Quantum1: " + q1 + ", Quantum2: " + q2);
-            scheduler.setReadyQueue(new MFQReadyQueue(q1, q2));
+            for (String workload : workloads) {
+                SweepRunner.Configuration configuration = new SweepRunner.Configuration("mfq", q1, q2, workload);
+                if (resume && store.contains(ResultsStore.key(workloadHashes.get(workload), configuration.getPolicy(),
+                        q1, q2, configuration.getCores()))) {
+                    skipped++;
+                    continue;
+                }
+                configurations.add(configuration);
+            }
+        }
+        if (resume) {
+            System.out.println("Skipping " + skipped + " configurations already in " + store.getFile());
+        }
 
-            schedule(inputs1);
-            schedule(inputs2);
-            schedule(inputs3);
-            schedule(inputs4);
-            schedule(inputs5);
-            schedule(inputs6);
+        //every configuration runs in its own machine, seeded the same way so parallel and sequential agree
+        SweepRunner runner = new SweepRunner(TEST_SEED);
+        long start = System.nanoTime();
+        List<MetricsTracker> results = parallel
+                ? runner.runParallel(configurations, Runtime.getRuntime().availableProcessors())
+                : runner.runSequential(configurations);
+        long elapsed = System.nanoTime() - start;
+
+        // ✅ Report in sweep order so the output doesn't depend on which thread finished first
+        LatencyMetrics quantumPair = new LatencyMetrics();
+        try {
+            for (int i = 0; i < results.size(); i++) {
+                SweepRunner.Configuration configuration = configurations.get(i);
+                if (i == 0 || !samePair(configuration, configurations.get(i - 1))) {
+                    System.out.println("Testing with Quantum1: " + configuration.getQuantum1() + ", Quantum2: " + configuration.getQuantum2());
+                    quantumPair = new LatencyMetrics();
+                }
+                results.get(i).printMetrics();
+                store.append(configuration.getWorkload(), configuration.getPolicy(), configuration.getCores(), results.get(i));
+
+                //the histograms merge, so every workload of a quantum pair adds up to one set of percentiles
+                quantumPair.merge(results.get(i).getLatency());
+                if (i == results.size() - 1 || !samePair(configuration, configurations.get(i + 1))) {
+                    System.out.println(quantumPair.toString("All workloads "));
+                }
+            }
+            store.flush();
+        } catch (IOException e) {
+            logError("Error storing results: " + e.getMessage());
         }
+
+        System.out.printf("Ran %d configurations in %.1f ms (%s)%n",
+                results.size(), elapsed / 1_000_000.0, parallel ? "parallel" : "sequential");
+    }
+
+    private static boolean samePair(SweepRunner.Configuration a, SweepRunner.Configuration b) {
+        return a.getQuantum1() == b.getQuantum1() && a.getQuantum2() == b.getQuantum2();
     }
 
     private static Set<String> getQuantumPairs() {
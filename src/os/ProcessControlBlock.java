@@ -1,16 +1,31 @@
 package os;
 
 import os.queues.QueueId;
+import os.util.LogLevel;
+import os.util.LogSubsystem;
 import os.util.Logging;
-import os.util.ProcessExecutionBurst;
+import os.util.ProcessTimeline;
+import os.util.Timeline;
 import vm.hardware.Clock;
+import vm.hardware.DecodedProgram;
+import vm.hardware.PageTable;
 
 import java.util.ArrayList;
 import java.util.List;
 
 public class ProcessControlBlock implements Logging {
     private static final int CPU_BURST_TOTAL = 5;
-    Clock clock = Clock.getInstance();
+    private static final String GANTT_CELL = "    ";
+    private static final String GANTT_MARK = "   X";
+    private static final String[] GANTT_ROWS = {"Job:     ", "Running: ", "IO:      ", "Ready:   ", "MFQ 1:   ", "MFQ 2:   ", "MFQ 3:   "};
+    private static final int GANTT_JOB = 0;
+    private static final int GANTT_RUNNING = 1;
+    private static final int GANTT_IO = 2;
+    private static final int GANTT_READY = 3;
+    private static final int GANTT_MFQ_1 = 4;
+    private static final int GANTT_MFQ_2 = 5;
+    private static final int GANTT_MFQ_3 = 6;
+    private final Clock clock = Clock.getInstance();
     private final int pid;
     private ProcessStatus status;
     private int programSize;
@@ -18,21 +33,47 @@ public class ProcessControlBlock implements Logging {
     private int codeStart;
     private final int startAfter;
     private final String filePath;
+    //a generated program comes with its image instead of a file, dropped once memory has a copy
+    private byte[] image;
     private final List<ProcessControlBlock> children = new ArrayList<>();
+    //set for a vfork child
+    private ProcessControlBlock parent;
     private final int[] registers = new int[12];
+    private DecodedProgram decodedProgram;
+    //only set while the process holds frames in paged memory
+    private PageTable pageTable;
+    //the core this process last ran on
+    private int core = 0;
+    //predicted length of the next cpu burst, -1 until a burst based policy has made a guess
+    private double burstEstimate = -1;
+    //for fair scheduling, nice -20 gets the most cpu and 19 the least
+    private int nice = 0;
+    private long vruntime = 0;
+    //the multilevel feedback queue level this process was last put in, -1 if it hasn't been in one
+    private int mfqLevel = -1;
 
     //process specific metrics
-    private final List<ProcessExecutionBurst> timeLine = new ArrayList<>();
+    private final ProcessTimeline timeLine = new ProcessTimeline();
     private int arrivalTime;
     private int completionTime;
     private int turnAroundTime;
     private int waitingTime = 0;
     private int responseTime = 0;
 
-
-    List<ProcessExecutionBurst> currentCPUBursts = new ArrayList<>();
-    //if we currently have a start time and no end time we store it here
-    private ProcessExecutionBurst currentTime;
+    //running totals kept up to date on every status change, so the scheduler never has to walk the timeline
+    private QueueId lastReadyQueue;
+    //running bursts in the current window of CPU_BURST_TOTAL and how many of them ended in IO
+    private int windowBursts = 0;
+    private int windowFinishedBursts = 0;
+    //cpu time since the process last came back from IO, and the cpu time it used before that IO
+    private int cpuTimeSinceIo = 0;
+    private int lastCpuBurst = -1;
+    private int totalRunningTime = 0;
+    private int totalIoTime = 0;
+
+    //if we currently have a start time and no end time we store it here, the burst goes in the timeline once it ends
+    private QueueId currentQueue;
+    private int currentStart;
 
     public ProcessControlBlock(int pid, String filePath, int startAfter) {
         this.pid = pid;
@@ -40,188 +81,177 @@ public class ProcessControlBlock implements Logging {
         this.startAfter = startAfter;
     }
 
+    /**
+     * @param name  stands in for the file path
+     * @param image the program to load instead of reading a file
+     */
+    public ProcessControlBlock(int pid, String name, int startAfter, byte[] image) {
+        this(pid, name, startAfter);
+        this.image = image;
+    }
+
     private void processStatusChange(ProcessStatus newStatus, QueueId queueId) {
-        if (currentTime != null) {
-            currentTime.setEnd();
-            timeLine.add(currentTime);
-            currentTime = null;
+        if (currentQueue != null) {
+            timeLine.add(currentQueue, currentStart, clock.getTime());
+            burstClosed(currentQueue, currentStart, clock.getTime());
+            currentQueue = null;
         }
 
         switch (newStatus) {
             case NEW:
                 arrivalTime = clock.getTime();
-                currentTime = new ProcessExecutionBurst(queueId);
+                startBurst(queueId);
                 break;
             case RUNNING:
-                currentTime = new ProcessExecutionBurst(queueId);
+                startBurst(queueId);
 
-                if (currentCPUBursts.size() > CPU_BURST_TOTAL) {
-                    currentCPUBursts.clear();
+                if (windowBursts > CPU_BURST_TOTAL) {
+                    windowBursts = 0;
+                    windowFinishedBursts = 0;
                 }
-                currentCPUBursts.add(currentTime);
+                windowBursts++;
                 break;
             case READY:
-                currentTime = new ProcessExecutionBurst(queueId);
+                startBurst(queueId);
                 break;
             case WAITING:
-                ProcessExecutionBurst peb = timeLine.getLast();
+                int last = timeLine.size() - 1;
                 //only set to finished if it was in a ready queue
-                if (peb != null && QueueId.RUNNING_QUEUE.equals(queueId)) {
-                    timeLine.getLast().setBurstFinished(true);
+                if (QueueId.RUNNING_QUEUE.equals(queueId) && !timeLine.isBurstFinished(last)) {
+                    timeLine.setBurstFinished(last);
+                    //a running burst that just ended is always the newest one in the window
+                    if (timeLine.getQueueId(last) == QueueId.RUNNING_QUEUE) {
+                        windowFinishedBursts++;
+                    }
                 }
-                currentTime = new ProcessExecutionBurst(queueId);
+                startBurst(queueId);
                 break;
             case TERMINATED:
                 completionTime = clock.getTime();
+                timeLine.trimToSize();
                 evaluateMetrics();
                 printfTimeline();
                 break;
         }
     }
 
+    private void startBurst(QueueId queueId) {
+        currentQueue = queueId;
+        currentStart = clock.getTime();
+    }
+
+    /**
+     * Folds a burst that just ended into the running totals
+     */
+    private void burstClosed(QueueId queueId, int start, int end) {
+        int length = end - start;
+        if (queueId == QueueId.RUNNING_QUEUE) {
+            totalRunningTime += length;
+            cpuTimeSinceIo += length;
+            if (responseTime == 0 && length > 0) {
+                responseTime = start - arrivalTime;
+                log(LogSubsystem.SCHEDULER, LogLevel.DEBUG, "Response time set to: {}", responseTime);
+            }
+        } else if (queueId == QueueId.IO_QUEUE) {
+            totalIoTime += length;
+            lastCpuBurst = cpuTimeSinceIo;
+            cpuTimeSinceIo = 0;
+        } else if (QueueId.READY_QUEUES.contains(queueId)) {
+            waitingTime += length;
+            lastReadyQueue = queueId;
+        }
+    }
+
+    /**
+     * @return the gantt row a queue is drawn in, -1 for queues that aren't drawn
+     */
+    private static int ganttRow(QueueId queueId) {
+        return switch (queueId) {
+            case JOB_QUEUE -> GANTT_JOB;
+            case RUNNING_QUEUE -> GANTT_RUNNING;
+            case IO_QUEUE -> GANTT_IO;
+            case RR_QUEUE, FCFS_QUEUE, SJF_QUEUE, SRTF_QUEUE, CFS_QUEUE -> GANTT_READY;
+            case MFQ_QUEUE_1 -> GANTT_MFQ_1;
+            case MFQ_QUEUE_2 -> GANTT_MFQ_2;
+            //anything below the third level shares its row
+            case MFQ_QUEUE_3, MFQ_QUEUE_4, MFQ_QUEUE_5, MFQ_QUEUE_6, MFQ_QUEUE_7, MFQ_QUEUE_8 -> GANTT_MFQ_3;
+            default -> -1;
+        };
+    }
 
     public void addChild(ProcessControlBlock pcb) {
-        log("Adding child " + pcb.getPid() + " to " + pid);
+        log(LogSubsystem.SCHEDULER, LogLevel.INFO, "Adding child {} to {}", pcb.getPid(), pid);
         children.add(pcb);
     }
 
     public void printfTimeline() {
+        log(LogSubsystem.SCHEDULER, LogLevel.DEBUG, this::timelineString);
+    }
+
+    private String timelineString() {
         StringBuilder sb = new StringBuilder("Process Timeline:\n");
-        for (ProcessExecutionBurst pet : timeLine) {
-            sb.append("Queue: ").append(pet.getQueueId())
-                    .append(", Start: ").append(pet.getStart())
-                    .append(", End: ").append(pet.getEnd())
-                    .append(", Execution Time: ").append(pet.getExecutionTime())
+        for (int i = 0; i < timeLine.size(); i++) {
+            sb.append("Queue: ").append(timeLine.getQueueId(i))
+                    .append(", Start: ").append(timeLine.getStart(i))
+                    .append(", End: ").append(timeLine.getEnd(i))
+                    .append(", Execution Time: ").append(timeLine.getExecutionTime(i))
                     .append(" units\n");
         }
-        log(sb.toString());
+        return sb.toString();
     }
 
+    /**
+     * Waiting and response time are kept up to date as bursts close, so all that's left at the end is turnaround
+     */
     public void evaluateMetrics() {
         turnAroundTime = completionTime - arrivalTime;
+    }
 
+    /**
+     * Builds this process's gantt chart, one column per tick from arrival to completion.
+     * It's as long as the process lived, so it's only made when someone asks for it.
+     */
+    public String ganttChart() {
         StringBuilder sb = new StringBuilder("Process " + pid + " Gantt Chart:\n");
         sb.append("Time:    ");
         for (int i = arrivalTime; i < completionTime; i++) {
-            sb.append(String.format("%4d", i));
+            String time = String.valueOf(i);
+            sb.repeat(' ', Math.max(0, GANTT_CELL.length() - time.length())).append(time);
         }
         sb.append("\n");
 
-        StringBuilder job = new StringBuilder("Job:     ");
-        StringBuilder ready = new StringBuilder("Ready:   ");
-        StringBuilder running = new StringBuilder("Running: ");
-        StringBuilder io = new StringBuilder("IO:      ");
-        StringBuilder mfq1 = new StringBuilder("MFQ 1:   ");
-        StringBuilder mfq2 = new StringBuilder("MFQ 2:   ");
-        StringBuilder mfq3 = new StringBuilder("MFQ 3:   ");
-
-        boolean usedMFQ1 = false;
-        boolean usedMFQ2 = false;
-        boolean usedMFQ3 = false;
-        boolean usedReady = false;
-
-        for (ProcessExecutionBurst pet : timeLine) {
-            for (int i = pet.getStart(); i < pet.getEnd(); i++) {
-                switch (pet.getQueueId()) {
-                    case JOB_QUEUE:
-                        job.append(String.format("%4s", "X"));
-                        ready.append(String.format("%4s", ""));
-                        running.append(String.format("%4s", ""));
-                        io.append(String.format("%4s", ""));
-                        mfq1.append(String.format("%4s", ""));
-                        mfq2.append(String.format("%4s", ""));
-                        mfq3.append(String.format("%4s", ""));
-
-                        break;
-                    case RUNNING_QUEUE:
-                        job.append(String.format("%4s", ""));
-                        ready.append(String.format("%4s", ""));
-                        running.append(String.format("%4s", "X"));
-                        io.append(String.format("%4s", ""));
-                        mfq1.append(String.format("%4s", ""));
-                        mfq2.append(String.format("%4s", ""));
-                        mfq3.append(String.format("%4s", ""));
-
-                        if (responseTime == 0) {
-                            responseTime = pet.getStart() - arrivalTime;
-                            log("Response time set to: " + responseTime);
-                        }
-
-                        break;
-                    case IO_QUEUE:
-                        job.append(String.format("%4s", ""));
-                        ready.append(String.format("%4s", ""));
-                        running.append(String.format("%4s", ""));
-                        io.append(String.format("%4s", "X"));
-                        mfq1.append(String.format("%4s", ""));
-                        mfq2.append(String.format("%4s", ""));
-                        mfq3.append(String.format("%4s", ""));
-                        break;
-                    case RR_QUEUE, FCFS_QUEUE:
-                        job.append(String.format("%4s", ""));
-                        ready.append(String.format("%4s", "X"));
-                        running.append(String.format("%4s", ""));
-                        io.append(String.format("%4s", ""));
-                        mfq1.append(String.format("%4s", ""));
-                        mfq2.append(String.format("%4s", ""));
-                        mfq3.append(String.format("%4s", ""));
-                        waitingTime++;
-                        usedReady = true;
-                        break;
-                    case MFQ_QUEUE_1:
-                        job.append(String.format("%4s", ""));
-                        ready.append(String.format("%4s", ""));
-                        running.append(String.format("%4s", ""));
-                        io.append(String.format("%4s", ""));
-                        mfq1.append(String.format("%4s", "X"));
-                        mfq2.append(String.format("%4s", ""));
-                        mfq3.append(String.format("%4s", ""));
-                        usedMFQ1 = true;
-                        waitingTime++;
-                        break;
-                    case MFQ_QUEUE_2:
-                        job.append(String.format("%4s", ""));
-                        ready.append(String.format("%4s", ""));
-                        running.append(String.format("%4s", ""));
-                        io.append(String.format("%4s", ""));
-                        mfq1.append(String.format("%4s", ""));
-                        mfq2.append(String.format("%4s", "X"));
-                        mfq3.append(String.format("%4s", ""));
-                        usedMFQ2 = true;
-                        waitingTime++;
-                        break;
-                    case MFQ_QUEUE_3:
-                        job.append(String.format("%4s", ""));
-                        ready.append(String.format("%4s", ""));
-                        running.append(String.format("%4s", ""));
-                        io.append(String.format("%4s", ""));
-                        mfq1.append(String.format("%4s", ""));
-                        mfq2.append(String.format("%4s", ""));
-                        mfq3.append(String.format("%4s", "X"));
-                        usedMFQ3 = true;
-                        waitingTime++;
-                        break;
-                    case TERMINATED_QUEUE:
-                        break;
-                }
-            }
+        StringBuilder[] rows = new StringBuilder[GANTT_ROWS.length];
+        for (int row = 0; row < rows.length; row++) {
+            rows[row] = new StringBuilder(GANTT_ROWS[row]);
         }
+        boolean[] used = new boolean[GANTT_ROWS.length];
+        boolean usedDeeperMFQ = false;
+
+        for (int i = 0; i < timeLine.size(); i++) {
+            int row = ganttRow(timeLine.getQueueId(i));
+            int length = timeLine.getExecutionTime(i);
+            if (row < 0 || length <= 0) {
+                continue;
+            }
 
-        sb.append(job).append("\n")
-                .append(running).append("\n")
-                .append(io).append("\n");
-
-        if (usedReady) {
-            sb.append(ready).append("\n");
-        }
-        if (usedMFQ1) {
-            sb.append(mfq1).append("\n");
-        }
-        if (usedMFQ2) {
-            sb.append(mfq2).append("\n");
+            //a whole burst at a time, the marked row gets an X per tick and every other row stays blank
+            for (int other = 0; other < rows.length; other++) {
+                rows[other].repeat(other == row ? GANTT_MARK : GANTT_CELL, length);
+            }
+            used[row] = true;
+            usedDeeperMFQ |= timeLine.getQueueId(i).ordinal() >= QueueId.MFQ_QUEUE_4.ordinal();
         }
-        if (usedMFQ3) {
-            sb.append(mfq3).append("\n");
+
+        //job, running and io always get a row, the ready rows only if the process was in them
+        int[] order = {GANTT_JOB, GANTT_RUNNING, GANTT_IO, GANTT_READY, GANTT_MFQ_1, GANTT_MFQ_2, GANTT_MFQ_3};
+        for (int row : order) {
+            if (row > GANTT_IO && !used[row]) {
+                continue;
+            }
+            if (row == GANTT_MFQ_3 && usedDeeperMFQ) {
+                rows[row].replace(0, 9, "MFQ 3+:  ");
+            }
+            sb.append(rows[row]).append("\n");
         }
 
         sb.append("Process ").append(pid).append(" Metrics:\n")
@@ -229,36 +259,54 @@ public class ProcessControlBlock implements Logging {
                 .append("Waiting Time: ").append(waitingTime).append("\n")
                 .append("Response Time: ").append(responseTime).append("\n");
 
-        log(sb.toString());
+        return sb.toString();
     }
 
 
+    /**
+     * @return the share of the last CPU_BURST_TOTAL running bursts that ended in IO, null until the window is full
+     */
     public Double getBurstCompletionPercentage() {
-        if (currentCPUBursts.size() != CPU_BURST_TOTAL) {
+        if (windowBursts != CPU_BURST_TOTAL) {
             return null;
         }
-        int total = 0;
-        int completed = 0;
-        for (ProcessExecutionBurst pet : currentCPUBursts) {
-            if (pet.isBurstFinished()) {
-                completed++;
-            }
-            total++;
-        }
+        return (double) windowFinishedBursts / windowBursts;
+    }
+
+    /**
+     * @return the cpu time of the last burst that ended in IO, -1 if the process hasn't done IO yet
+     */
+    public int getLastCpuBurst() {
+        return lastCpuBurst;
+    }
 
-        return (double) completed / total;
+    /**
+     * @return the cpu time used since the process last came back from IO, not counting a burst still open
+     */
+    public int getCurrentCpuBurst() {
+        return cpuTimeSinceIo;
     }
 
+    /**
+     * @return the ready queue the process was last in, null if it hasn't left one yet
+     */
     public QueueId getLastReadyQueue() {
-        for (int i = timeLine.size() - 1; i >= 0; i--) {
-            ProcessExecutionBurst burst = timeLine.get(i);
-            if (QueueId.READY_QUEUES.contains(burst.getQueueId())) {
-                return burst.getQueueId();
-            }
-        }
-        return null;
+        return lastReadyQueue;
     }
 
+    /**
+     * @return the time spent on the cpu, not counting a burst still going on
+     */
+    public int getTotalRunningTime() {
+        return totalRunningTime;
+    }
+
+    /**
+     * @return the time spent blocked on IO, not counting IO still going on
+     */
+    public int getTotalIoTime() {
+        return totalIoTime;
+    }
 
     public int getTurnAroundTime() {
         return turnAroundTime;
@@ -303,7 +351,7 @@ public class ProcessControlBlock implements Logging {
     public void setStatus(ProcessStatus status, QueueId queueId) {
         processStatusChange(status, queueId);
         this.status = status;
-        log("Process " + pid + " is now " + status + " in queue " + queueId);
+        log(LogSubsystem.SCHEDULER, LogLevel.INFO, () -> "Process " + pid + " is now " + status + " in queue " + queueId);
     }
 
     public int getProgramSize() {
@@ -338,6 +386,17 @@ public class ProcessControlBlock implements Logging {
         return filePath;
     }
 
+    /**
+     * @return the image to load, null if it comes from the file path
+     */
+    public byte[] getImage() {
+        return image;
+    }
+
+    public void releaseImage() {
+        image = null;
+    }
+
     public int getCodeStart() {
         return codeStart;
     }
@@ -346,11 +405,82 @@ public class ProcessControlBlock implements Logging {
         this.codeStart = codeStart;
     }
 
+    public DecodedProgram getDecodedProgram() {
+        return decodedProgram;
+    }
+
+    public void setDecodedProgram(DecodedProgram decodedProgram) {
+        this.decodedProgram = decodedProgram;
+    }
+
+    public PageTable getPageTable() {
+        return pageTable;
+    }
+
+    public void setPageTable(PageTable pageTable) {
+        this.pageTable = pageTable;
+    }
+
+    public double getBurstEstimate() {
+        return burstEstimate;
+    }
+
+    public void setBurstEstimate(double burstEstimate) {
+        this.burstEstimate = burstEstimate;
+    }
+
+    public int getNice() {
+        return nice;
+    }
+
+    public void setNice(int nice) {
+        this.nice = nice;
+    }
+
+    public long getVruntime() {
+        return vruntime;
+    }
+
+    public void setVruntime(long vruntime) {
+        this.vruntime = vruntime;
+    }
+
+    public int getMfqLevel() {
+        return mfqLevel;
+    }
+
+    public void setMfqLevel(int mfqLevel) {
+        this.mfqLevel = mfqLevel;
+    }
+
+    public int getCore() {
+        return core;
+    }
+
+    public void setCore(int core) {
+        this.core = core;
+    }
+
+    /**
+     * @return the queue the process is in right now, null once it has terminated
+     */
+    public QueueId getCurrentQueue() {
+        return currentQueue;
+    }
+
+    public ProcessControlBlock getParent() {
+        return parent;
+    }
+
+    public void setParent(ProcessControlBlock parent) {
+        this.parent = parent;
+    }
+
     public int getArrivalTime() {
         return arrivalTime;
     }
 
-    public List<ProcessExecutionBurst> getTimeLine() {
+    public Timeline getTimeLine() {
         return timeLine;
     }
 }
@@ -2,45 +2,64 @@ package os;
 
 
 import os.queues.*;
+import os.util.LogLevel;
+import os.util.LogSubsystem;
 import os.util.Logging;
 import os.util.MetricsTracker;
 import os.util.SystemGanttChart;
 import os.util.SystemGanttChartGui;
+import os.util.TraceEvent;
+import os.util.TraceRecorder;
 import util.Observer;
 import vm.hardware.Clock;
+import vm.hardware.Memory;
 
 import java.util.*;
 import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * The Scheduler class is responsible for managing the queues and telling the OS when to run/swap processes.
  * It is also responsible for keeping track of metrics
+ * With more than one core every core gets its own ready queue and running process, and an idle core
+ * steals work from the longest queue.
  */
 class Scheduler implements Logging, Observer {
-    private static final Clock clock = Clock.getInstance();
+    private final Clock clock = Clock.getInstance();
+    private final Memory memory = Memory.getInstance();
+    private final TraceRecorder trace = TraceRecorder.getInstance();
     private final LinkedList<ProcessControlBlock> jobQueue = new LinkedList<>();
     private final IOQueue ioQueue = new IOQueue();
     private final LinkedList<ProcessControlBlock> terminatedQueue = new LinkedList<>();
-    private ProcessControlBlock currentProcess;
 
     private final Map<String, ProcessControlBlock> processMap = new HashMap<>();
+    //nice values by program, handed to every process started from that program
+    private final Map<String, Integer> niceValues = new HashMap<>();
     private final List<ProcessControlBlock> currentProcesses = new ArrayList<>();
-    private IReadyQueue readyQueue;
+
+    //one ready queue and running process per core, index 0 is all there is on a single core machine
+    private Supplier<IReadyQueue> readyQueueFactory;
+    private IReadyQueue[] readyQueues;
+    private ProcessControlBlock[] runningProcesses = new ProcessControlBlock[1];
 
     private final OperatingSystem parentOs;
 
+    //when true the clock jumps straight over stretches where nothing can happen instead of ticking through them,
+    //off by default, bench.ClockModeEquivalence is what shows the two give the same runs
+    private boolean eventDriven = false;
+
     //metrics here for now
     List<MetricsTracker> metrics = new ArrayList<>();
 
-    private Scheduler(OperatingSystem parentOs, IReadyQueue readyQueue) {
+    private Scheduler(OperatingSystem parentOs, Supplier<IReadyQueue> readyQueueFactory) {
         this.parentOs = parentOs;
-        setReadyQueue(readyQueue);
+        setReadyQueue(readyQueueFactory);
     }
 
     public Scheduler(OperatingSystem parentOs) {
-        //this(parentOs, new RRReadyQueue(5));
-        //this(parentOs, new FCFSReadyQueue());
-        this(parentOs, new MFQReadyQueue(5, 10));
+        //this(parentOs, () -> new RRReadyQueue(5));
+        //this(parentOs, FCFSReadyQueue::new);
+        this(parentOs, () -> new MFQReadyQueue(5, 10));
     }
 
     public void addToJobQueue(ProcessControlBlock pcb) {
@@ -48,6 +67,13 @@ class Scheduler implements Logging, Observer {
         pcb.setStatus(ProcessStatus.NEW, QueueId.JOB_QUEUE);
         processMap.put(pcb.getFilePath(), pcb);
         currentProcesses.add(pcb);
+        pcb.setNice(niceValues.getOrDefault(pcb.getFilePath(), 0));
+        trace.record(TraceEvent.ARRIVE, pcb.getCore(), pcb.getPid(), pcb.getStartAfter());
+    }
+
+    public void setNice(String filePath, int nice) {
+        log(LogSubsystem.SCHEDULER, LogLevel.INFO, () -> filePath + " runs at nice " + nice);
+        niceValues.put(filePath, nice);
     }
 
     private void pushToBackOfJobQueue(ProcessControlBlock pcb) {
@@ -62,23 +88,59 @@ class Scheduler implements Logging, Observer {
      */
     public void addToIOQueue(ProcessControlBlock pcb) {
         ioQueue.add(pcb);
+        if (isMultiCore()) {
+            //the other cores keep going, this one just picks up something else next tick
+            int core = getCore(pcb);
+            parentOs.stopProcess(core);
+            runningProcesses[core] = null;
+            return;
+        }
         transitionProcess();
     }
 
     //moved status change to ready queue
     private void addToReadyQueue(ProcessControlBlock pcb) {
-        readyQueue.addProcess(pcb);
+        addToReadyQueue(chooseCore(pcb), pcb);
+    }
+
+    private void addToReadyQueue(int core, ProcessControlBlock pcb) {
+        readyQueues[core].addProcess(pcb);
+        trace.record(TraceEvent.READY, core, pcb.getPid(), pcb.getCurrentQueue().ordinal());
+    }
+
+    /**
+     * New processes go to the least busy core, everything else goes back to the core it last ran on
+     */
+    private int chooseCore(ProcessControlBlock pcb) {
+        if (!isMultiCore() || pcb.getStatus() != ProcessStatus.NEW) {
+            return pcb.getCore();
+        }
+
+        int best = 0;
+        int bestLoad = Integer.MAX_VALUE;
+        for (int core = 0; core < readyQueues.length; core++) {
+            int load = readyQueues[core].size() + (runningProcesses[core] != null ? 1 : 0);
+            if (load < bestLoad) {
+                best = core;
+                bestLoad = load;
+            }
+        }
+        return best;
     }
 
     public void addToTerminatedQueue(ProcessControlBlock pcb) {
-        log("Adding process " + pcb.getPid() + " to terminated queue");
+        log(LogSubsystem.SCHEDULER, LogLevel.INFO, "Adding process {} to terminated queue", pcb.getPid());
         pcb.setStatus(ProcessStatus.TERMINATED, QueueId.TERMINATED_QUEUE);
 
-        if (pcb.equals(currentProcess)) {
-            currentProcess = null;
+        int core = getCore(pcb);
+        if (core >= 0) {
+            runningProcesses[core] = null;
         }
 
         terminatedQueue.add(pcb);
+        memory.free(pcb);
+        getLastMetrics().processCompleted(pcb);
+        trace.record(TraceEvent.TERMINATE, pcb.getCore(), pcb.getPid(), pcb.getTurnAroundTime());
     }
 
     public ProcessControlBlock getProcess(String filePath) {
@@ -95,15 +157,37 @@ class Scheduler implements Logging, Observer {
 
 
     private ProcessControlBlock getFromReadyQueue() {
-        currentProcess = readyQueue.getNextProcess();
-        return currentProcess;
+        runningProcesses[0] = readyQueues[0].getNextProcess();
+        return runningProcesses[0];
+    }
+
+    /**
+     * @return the core the process is running on, -1 if it isn't running
+     */
+    private int getCore(ProcessControlBlock pcb) {
+        for (int core = 0; core < runningProcesses.length; core++) {
+            if (pcb.equals(runningProcesses[core])) {
+                return core;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isMultiCore() {
+        return readyQueues.length > 1;
     }
 
     public void processJobs() {
-        MetricsTracker metricsTracker = new MetricsTracker();
+        MetricsTracker metricsTracker = new MetricsTracker(readyQueues.length);
         metrics.add(metricsTracker);
+        int startTime = clock.getTime();
+        long[] busyBefore = getBusyTicks();
 
         while (!jobQueue.isEmpty()) {
+            if (eventDriven) {
+                skipToNextArrival();
+            }
+
             ProcessControlBlock pcb = getJob();
             if (pcb.getStartAfter() <= clock.getTime()) {
                 pcb = parentOs.loadIntoMemory(pcb);
@@ -122,27 +206,199 @@ class Scheduler implements Logging, Observer {
             }
         }
 
-        runThroughReadyQueue();
+        if (isMultiCore()) {
+            runThroughCores();
+        } else {
+            runThroughReadyQueue();
+        }
 
         //print metrics here for now
-        metricsTracker.calculateMetrics(currentProcesses, readyQueue.getQuantum(), currentProcesses.getLast().getFilePath());
+        metricsTracker.calculateMetrics(currentProcesses, readyQueues[0].getQuantum(), currentProcesses.getLast().getFilePath());
+
+        long[] busyTicks = getBusyTicks();
+        for (int core = 0; core < busyTicks.length; core++) {
+            busyTicks[core] -= busyBefore[core];
+        }
+        metricsTracker.calculateCoreMetrics(busyTicks, clock.getTime() - startTime);
+    }
+
+    private long[] getBusyTicks() {
+        long[] busyTicks = new long[readyQueues.length];
+        for (int core = 0; core < busyTicks.length; core++) {
+            busyTicks[core] = parentOs.getBusyTicks(core);
+        }
+        return busyTicks;
     }
 
     private void runThroughReadyQueue() {
-        while (!readyQueue.isEmpty() || !ioQueue.isEmpty()) {
+        while (!readyQueues[0].isEmpty() || !ioQueue.isEmpty()) {
             ProcessControlBlock pcb = getFromReadyQueue();
             if (pcb == null) {
-                clock.tick();
+                skipIdleTime();
                 continue;
             }
 
+            memory.compactStep();
             runProcess(pcb);
         }
     }
 
+    /**
+     * Multi-core version of runThroughReadyQueue. The cores run in lockstep: every tick each busy core
+     * executes one instruction, then the clock ticks once for all of them.
+     */
+    private void runThroughCores() {
+        while (hasWork()) {
+            dispatchIdleCores();
+            if (!isAnyCoreBusy()) {
+                skipIdleTime();
+                continue;
+            }
+
+            for (int core = 0; core < runningProcesses.length; core++) {
+                if (runningProcesses[core] != null && !parentOs.stepProcess(core)) {
+                    runningProcesses[core] = null;
+                }
+            }
+
+            clock.tick();
+
+            for (int core = 0; core < runningProcesses.length; core++) {
+                ProcessControlBlock pcb = runningProcesses[core];
+                //a wait counts as a single tick against the quantum, same as on one core
+                if (pcb != null && !parentOs.isCoreStalled(core) && readyQueues[core].incrementQuantumCounter()) {
+                    log(LogSubsystem.SCHEDULER, LogLevel.INFO, "Quantum expired on core {}", core);
+                    trace.record(TraceEvent.PREEMPT, core, pcb.getPid());
+                    parentOs.stopProcess(core);
+                    runningProcesses[core] = null;
+                    addToReadyQueue(core, pcb);
+                }
+            }
+        }
+    }
+
+    private boolean hasWork() {
+        return !ioQueue.isEmpty() || isAnyCoreBusy() || Arrays.stream(readyQueues).anyMatch(queue -> !queue.isEmpty());
+    }
+
+    private boolean isAnyCoreBusy() {
+        for (ProcessControlBlock pcb : runningProcesses) {
+            if (pcb != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Idle cores take the next process from their own queue first.
+     * Only once every core has had its turn do the ones still idle go stealing.
+     */
+    private void dispatchIdleCores() {
+        for (int core = 0; core < runningProcesses.length; core++) {
+            if (runningProcesses[core] == null) {
+                startOnCore(core, readyQueues[core].getNextProcess());
+            }
+        }
+
+        for (int core = 0; core < runningProcesses.length; core++) {
+            if (runningProcesses[core] == null) {
+                startOnCore(core, steal(core));
+            }
+        }
+    }
+
+    /**
+     * Moves a process from the longest ready queue over to the idle core
+     *
+     * @return the next process for the idle core, null if there was nothing to steal
+     */
+    private ProcessControlBlock steal(int thief) {
+        int victim = -1;
+        for (int core = 0; core < readyQueues.length; core++) {
+            if (core != thief && readyQueues[core].size() > (victim < 0 ? 0 : readyQueues[victim].size())) {
+                victim = core;
+            }
+        }
+        if (victim < 0) {
+            return null;
+        }
+
+        ProcessControlBlock pcb = readyQueues[victim].stealProcess();
+        log(LogSubsystem.SCHEDULER, LogLevel.INFO, "Core {} stole process {} from core {}", thief, pcb.getPid(), victim);
+        getLastMetrics().processStolen(thief);
+        trace.record(TraceEvent.STEAL, thief, pcb.getPid(), victim);
+        pcb.setCore(thief);
+        addToReadyQueue(thief, pcb);
+        return readyQueues[thief].getNextProcess();
+    }
+
+    private void startOnCore(int core, ProcessControlBlock pcb) {
+        if (pcb == null) {
+            return;
+        }
+
+        pcb.setCore(core);
+        pcb.setStatus(ProcessStatus.RUNNING, QueueId.RUNNING_QUEUE);
+        readyQueues[core].resetQuantumCounter();
+        runningProcesses[core] = pcb;
+        parentOs.startProcess(pcb);
+        //between quanta is when compaction gets a turn, whatever is running on a core stays put
+        memory.compactStep();
+    }
+
+    /**
+     * Nothing is ready so everything is blocked on IO. In tick mode we wait one tick at a time,
+     * otherwise we go straight to the next IO release.
+     */
+    private void skipIdleTime() {
+        int ticks = 1;
+        if (eventDriven) {
+            ticks = Math.max(1, ioQueue.getNextReleaseTime() - clock.getTime());
+            //in tick mode every ready queue would have been polled once per tick
+            for (IReadyQueue readyQueue : readyQueues) {
+                readyQueue.skipEmptyPolls(ticks - 1);
+            }
+        }
+
+        clock.tick(ticks);
+    }
+
+    /**
+     * In tick mode the job loop pops a job, and if it hasn't arrived yet pushes it to the back and ticks once.
+     * This works out which job that loop would load first and when, then rotates the job queue and
+     * moves the clock there in one step. Only safe while nothing else is going on in the system.
+     */
+    private void skipToNextArrival() {
+        if (!ioQueue.isEmpty() || isAnyCoreBusy()) {
+            return;
+        }
+
+        int now = clock.getTime();
+        int size = jobQueue.size();
+        int pops = Integer.MAX_VALUE;
+        int i = 0;
+        for (ProcessControlBlock pcb : jobQueue) {
+            //the job at position i is popped at time now + i + k * size
+            int behind = pcb.getStartAfter() - now - i;
+            int rounds = behind > 0 ? (behind + size - 1) / size : 0;
+            pops = Math.min(pops, i + rounds * size);
+            i++;
+        }
+
+        if (pops == 0) {
+            return;
+        }
+
+        for (int rotate = 0; rotate < pops % size; rotate++) {
+            pushToBackOfJobQueue(getJob());
+        }
+        clock.tick(pops);
+    }
+
     private void runProcess(ProcessControlBlock pcb) {
         pcb.setStatus(ProcessStatus.RUNNING, QueueId.RUNNING_QUEUE);
-        readyQueue.resetQuantumCounter();
+        readyQueues[pcb.getCore()].resetQuantumCounter();
         parentOs.runProcess(pcb);
     }
 
@@ -151,13 +407,19 @@ class Scheduler implements Logging, Observer {
     }
 
     public int getNumTotalProcesses() {
-        return jobQueue.size() + readyQueue.
-                size() + terminatedQueue.size() + ioQueue.size();
+        int ready = 0;
+        for (IReadyQueue readyQueue : readyQueues) {
+            ready += readyQueue.size();
+        }
+        return jobQueue.size() + ready + terminatedQueue.size() + ioQueue.size();
     }
 
     public ProcessControlBlock startChildProcess(ProcessControlBlock parent) {
         ProcessControlBlock pcb = new ProcessControlBlock(getNewPid(), "files/child.osx", 0);
+        pcb.setParent(parent);
         pcb = parentOs.loadIntoMemory(pcb);
+        //the child runs to completion on the parent's core
+        pcb.setCore(parent.getCore());
         runProcess(pcb);
         return pcb;
     }
@@ -169,46 +431,92 @@ class Scheduler implements Logging, Observer {
             addToReadyQueue(pcb);
         }
 
-        if (currentProcess != null && readyQueue.incrementQuantumCounter()) {
-            log("Quantum expired");
+        //with more than one core the quantums are checked in runThroughCores once every core has stepped
+        if (!isMultiCore() && runningProcesses[0] != null && readyQueues[0].incrementQuantumCounter()) {
+            log(LogSubsystem.SCHEDULER, LogLevel.INFO, "Quantum expired");
+            trace.record(TraceEvent.PREEMPT, 0, runningProcesses[0].getPid());
             //putting the current process back in the ready queue because it's a quantum
-            addToReadyQueue(currentProcess);
+            addToReadyQueue(runningProcesses[0]);
             transitionProcess();
         }
     }
 
     /**
      * This method is responsible for transitioning the current process to the next process in the ready queue
-     * this is only used if the there is a current process running
+     * this is only used if the there is a current process running, and only on a single core machine
      */
     private void transitionProcess() {
-        readyQueue.resetQuantumCounter();
-        if (currentProcess != null) {
+        readyQueues[0].resetQuantumCounter();
+        if (runningProcesses[0] != null) {
             //setting the new current process
-            currentProcess = getFromReadyQueue();
+            ProcessControlBlock currentProcess = getFromReadyQueue();
             //running the new current process
             if (currentProcess != null) {
                 currentProcess.setStatus(ProcessStatus.RUNNING, QueueId.RUNNING_QUEUE);
-                parentOs.transitionProcess(currentProcess);
+                parentOs.transitionProcess(0, currentProcess);
+                memory.compactStep();
             } else {
                 //nothing in ready queue, probably stuck in IO
-                parentOs.stopProcess();
-                currentProcess = null;
+                parentOs.stopProcess(0);
                 clock.tick();
             }
         }
         //if current process == null then we're probably waiting on io and the clock ticked
     }
 
-    public void setReadyQueue(IReadyQueue readyQueue) {
-        log("Setting ready queue to " + readyQueue.getClass().getSimpleName());
-        this.readyQueue = readyQueue;
+    public void setEventDriven(boolean eventDriven) {
+        log(LogSubsystem.SCHEDULER, LogLevel.INFO, eventDriven ? "Event driven clock" : "Tick by tick clock");
+        this.eventDriven = eventDriven;
+    }
+
+    /**
+     * @param readyQueueFactory builds the ready queue, called once per core
+     */
+    public void setReadyQueue(Supplier<IReadyQueue> readyQueueFactory) {
+        this.readyQueueFactory = readyQueueFactory;
+        readyQueues = new IReadyQueue[runningProcesses.length];
+        for (int core = 0; core < readyQueues.length; core++) {
+            readyQueues[core] = readyQueueFactory.get();
+        }
+        log(LogSubsystem.SCHEDULER, LogLevel.INFO, () -> "Setting ready queue to " + readyQueues[0].getClass().getSimpleName());
+    }
+
+    /**
+     * Every core starts over with a fresh ready queue of the current type
+     */
+    public void setCores(int cores) {
+        log(LogSubsystem.SCHEDULER, LogLevel.INFO, "Scheduling for {} cores", cores);
+        runningProcesses = new ProcessControlBlock[cores];
+        setReadyQueue(readyQueueFactory);
     }
 
     public void clearCurrentProcesses() {
         currentProcesses.clear();
     }
 
+    /**
+     * @return every process from the last run, in the order they were added
+     */
+    public List<ProcessControlBlock> getCurrentProcesses() {
+        return Collections.unmodifiableList(currentProcesses);
+    }
+
+    /**
+     * @return a process from the last run, null if there wasn't one with that pid
+     */
+    public ProcessControlBlock getCurrentProcess(int pid) {
+        for (ProcessControlBlock pcb : currentProcesses) {
+            if (pcb.getPid() == pid) {
+                return pcb;
+            }
+        }
+        return null;
+    }
+
+    public MetricsTracker getLastMetrics() {
+        return metrics.getLast();
+    }
+
     public void systemGanttChart() {
         SystemGanttChart.makeChart(currentProcesses);
         //SystemGanttChartGui.makeChart(currentProcesses);
@@ -1,10 +1,13 @@
 package os;
 
 import os.util.ErrorDump;
+import os.util.LogLevel;
+import os.util.LogSubsystem;
 import os.util.Logging;
 import os.util.VerboseModeLogger;
 
 import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
 
 public class Shell implements Logging {
@@ -39,7 +42,8 @@ public class Shell implements Logging {
                     continue;
                 }
 
-                log("Redo: " + Arrays.toString(previousCommand));
+                String[] redo = previousCommand;
+                log(LogSubsystem.SYSTEM, LogLevel.INFO, () -> "Redo: " + Arrays.toString(redo));
                 inputs = previousCommand;
             }
 
@@ -51,7 +55,7 @@ public class Shell implements Logging {
 
             switch (inputs[0]) {
                 case "execute":
-                    log("Starting execute");
+                    log(LogSubsystem.SYSTEM, LogLevel.INFO, "Starting execute");
                     //add some error checks here for input
                     os.schedule(inputs);
                     break;
@@ -62,12 +66,7 @@ public class Shell implements Logging {
                     prompt = "VM-> ";
                     break;
                 case "osx":
-                    if (inputs.length < 3) {
-                        logError("Not enough inputs provided");
-                        break;
-                    }
-                    //if working on windows machine, use false, otherwise use true
-                    os.assembleFile(inputs[1], inputs[2], true);
+                    os.assemble(inputs);
                     break;
                 case "errordump":
                     ErrorDump.getInstance().printLogs();
@@ -75,18 +74,56 @@ public class Shell implements Logging {
                 case "coredump":
                     os.coreDump(inputs);
                     break;
+                case "generate":
+                    os.generate(inputs);
+                    break;
                 case "setsched":
                     os.setSchedule(inputs);
                     break;
+                case "cpumode":
+                    os.setCpuMode(inputs);
+                    break;
+                case "clockmode":
+                    os.setClockMode(inputs);
+                    break;
+                case "memmode":
+                    os.setMemoryMode(inputs);
+                    break;
+                case "memsize":
+                    os.setMemorySize(inputs);
+                    break;
+                case "imagecache":
+                    os.imageCache(inputs);
+                    break;
+                case "cores":
+                    os.setCores(inputs);
+                    break;
+                case "nice":
+                    os.setNice(inputs);
+                    break;
+                case "gantt":
+                    os.processGanttChart(inputs);
+                    break;
+                case "trace":
+                    os.trace(inputs);
+                    break;
+                case "loglevel":
+                    os.setLogLevel(inputs);
+                    break;
                 case "test":
-                   os.testStuff();
+                    //"test seq" runs the sweep one configuration at a time, "resume" skips what's already stored
+                    List<String> options = Arrays.asList(inputs).subList(1, inputs.length);
+                    os.testStuff(!options.contains("seq"), options.contains("resume"));
+                    break;
+                case "surface":
+                    os.surface(inputs);
                     break;
                 case "help":
-                    log("Need some help huh");
+                    log(LogSubsystem.SYSTEM, LogLevel.INFO, "Need some help huh");
                     os.printHelp();
                     break;
                 case "exit":
-                    log("Exiting VM");
+                    log(LogSubsystem.SYSTEM, LogLevel.INFO, "Exiting VM");
                     scanner.close();
                     return;
                 default:
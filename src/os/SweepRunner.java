@@ -0,0 +1,140 @@
+package os;
+
+import os.util.Logging;
+import os.util.MetricsTracker;
+import vm.VmInstance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a parameter sweep. Every configuration gets its own freshly built VmInstance seeded the same way,
+ * so a configuration gives the same metrics no matter which thread runs it or what ran before it.
+ * That means the parallel run matches the sequential one exactly.
+ */
+public class SweepRunner implements Logging {
+    private final long seed;
+
+    public SweepRunner(long seed) {
+        this.seed = seed;
+    }
+
+    public List<MetricsTracker> runSequential(List<Configuration> configurations) {
+        List<MetricsTracker> results = new ArrayList<>();
+        for (Configuration configuration : configurations) {
+            results.add(run(configuration));
+        }
+        return results;
+    }
+
+    /**
+     * Fans the configurations out over a work stealing (ForkJoin) pool.
+     *
+     * @return the metrics in the same order as the configurations
+     */
+    public List<MetricsTracker> runParallel(List<Configuration> configurations, int threads) {
+        ExecutorService executor = Executors.newWorkStealingPool(threads);
+        try {
+            List<Callable<MetricsTracker>> tasks = new ArrayList<>();
+            for (Configuration configuration : configurations) {
+                tasks.add(() -> run(configuration));
+            }
+
+            List<MetricsTracker> results = new ArrayList<>();
+            for (Future<MetricsTracker> future : executor.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logError("Sweep interrupted");
+            return List.of();
+        } catch (ExecutionException e) {
+            logError("Sweep failed: " + e.getCause());
+            return List.of();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private MetricsTracker run(Configuration configuration) {
+        VmInstance vm = new VmInstance(new Random(seed));
+        try {
+            return vm.call(() -> {
+                OperatingSystem os = vm.getOperatingSystem();
+                os.setReporting(false);
+                os.setCores(configuration.getCores());
+                os.setSchedule(configuration.getScheduleInputs());
+                os.schedule(configuration.getWorkloadInputs());
+                return os.getLastMetrics();
+            });
+        } catch (Exception e) {
+            throw new IllegalStateException("Configuration " + configuration + " failed", e);
+        }
+    }
+
+    /**
+     * One point in the sweep: a scheduling policy with its quantums, the number of cores and the workload to run under it
+     */
+    public static class Configuration {
+        private final String policy;
+        private final int quantum1;
+        private final int quantum2;
+        private final int cores;
+        private final String workload;
+
+        public Configuration(String policy, int quantum1, int quantum2, String workload) {
+            this(policy, quantum1, quantum2, 1, workload);
+        }
+
+        /**
+         * @param workload the execute command to run, e.g. "execute files/cases/s-cpu-1.osx 1"
+         */
+        public Configuration(String policy, int quantum1, int quantum2, int cores, String workload) {
+            this.policy = policy;
+            this.quantum1 = quantum1;
+            this.quantum2 = quantum2;
+            this.cores = cores;
+            this.workload = workload;
+        }
+
+        String[] getScheduleInputs() {
+            return new String[]{"setsched", policy, String.valueOf(quantum1), String.valueOf(quantum2)};
+        }
+
+        String[] getWorkloadInputs() {
+            return workload.split(" ");
+        }
+
+        public String getPolicy() {
+            return policy;
+        }
+
+        public int getQuantum1() {
+            return quantum1;
+        }
+
+        public int getQuantum2() {
+            return quantum2;
+        }
+
+        public int getCores() {
+            return cores;
+        }
+
+        public String getWorkload() {
+            return workload;
+        }
+
+        @Override
+        public String toString() {
+            return policy + " " + quantum1 + "," + quantum2 + " x" + cores + " " + workload;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package os.queues;
+
+import os.ProcessControlBlock;
+import os.ProcessStatus;
+import os.util.LogLevel;
+import os.util.LogSubsystem;
+
+import java.util.Comparator;
+import java.util.TreeSet;
+
+/**
+ * Completely fair scheduling. Every process collects virtual runtime while it runs, scaled down by its weight,
+ * and the process with the least virtual runtime runs next. Waiting processes sit in a red-black tree (TreeSet)
+ * ordered on virtual runtime, so picking the next one and putting one back are both O(log n).
+ * There is no fixed quantum: the target latency is shared out between everything runnable by weight,
+ * so with more processes each one gets a shorter slice, down to the minimum granularity.
+ */
+public class CFSReadyQueue implements IReadyQueue {
+    public static final int DEFAULT_TARGET_LATENCY = 20;
+    public static final int DEFAULT_MIN_GRANULARITY = 2;
+
+    static final int NICE_0_WEIGHT = 1024;
+    //virtual runtime is kept in 1/1024ths of a tick at nice 0 so weights don't need floating point
+    private static final int VRUNTIME_SCALE = 1024;
+
+    //weight for nice -20 to 19, every step is about 10% more or less cpu
+    private static final int[] NICE_TO_WEIGHT = {
+            88761, 71755, 56483, 46273, 36291,
+            29154, 23254, 18705, 14949, 11916,
+            9548, 7620, 6100, 4904, 3906,
+            3121, 2501, 1991, 1586, 1277,
+            1024, 820, 655, 526, 423,
+            335, 272, 215, 172, 137,
+            110, 87, 70, 56, 45,
+            36, 29, 23, 18, 15,
+    };
+
+    private static final Comparator<Entry> LEAST_VRUNTIME =
+            Comparator.comparingLong(Entry::getVruntime).thenComparingLong(Entry::getSequence);
+
+    private final int targetLatency;
+    private final int minGranularity;
+    private final TreeSet<Entry> tree = new TreeSet<>(LEAST_VRUNTIME);
+    private long sequence = 0;
+    //weight of everything in the tree
+    private long queuedWeight = 0;
+    //never goes backwards, new and waking processes start from here
+    private long minVruntime = 0;
+
+    private ProcessControlBlock running;
+    private int timeSlice;
+    private int quantumCounter = 0;
+
+    public CFSReadyQueue() {
+        this(DEFAULT_TARGET_LATENCY, DEFAULT_MIN_GRANULARITY);
+    }
+
+    /**
+     * @param targetLatency  the time in which every runnable process should get to run once
+     * @param minGranularity the shortest slice a process gets no matter how many are runnable
+     */
+    public CFSReadyQueue(int targetLatency, int minGranularity) {
+        if (targetLatency < 1 || minGranularity < 1) {
+            throw new IllegalArgumentException("target latency and minimum granularity have to be at least 1");
+        }
+        this.targetLatency = targetLatency;
+        this.minGranularity = minGranularity;
+    }
+
+    public static int weightOf(int nice) {
+        return NICE_TO_WEIGHT[Math.clamp(nice, -20, 19) + 20];
+    }
+
+    @Override
+    public void addProcess(ProcessControlBlock pcb) {
+        ProcessStatus status = pcb.getStatus();
+        switch (status) {
+            case NEW:
+                //start level with everyone else so a new process can't hog the cpu to catch up
+                pcb.setVruntime(Math.max(pcb.getVruntime(), minVruntime));
+                break;
+            case WAITING:
+                //a little credit for sleeping on IO so interactive processes get back on quickly
+                long sleeperCredit = (long) targetLatency * VRUNTIME_SCALE / 2;
+                pcb.setVruntime(Math.max(pcb.getVruntime(), minVruntime - sleeperCredit));
+                break;
+            case READY:
+                //stolen from another core, stealProcess made it relative to that queue
+                pcb.setVruntime(pcb.getVruntime() + minVruntime);
+                break;
+            default:
+                //preempted, it carries on where it left off
+                break;
+        }
+
+        pcb.setStatus(ProcessStatus.READY, getQueueId());
+        tree.add(new Entry(pcb, pcb.getVruntime(), sequence++));
+        queuedWeight += weightOf(pcb.getNice());
+    }
+
+    @Override
+    public ProcessControlBlock getNextProcess() {
+        Entry entry = tree.pollFirst();
+        if (entry == null) {
+            running = null;
+            return null;
+        }
+
+        running = entry.getPcb();
+        int weight = weightOf(running.getNice());
+        queuedWeight -= weight;
+        timeSlice = timeSlice(weight);
+        updateMinVruntime();
+        log(LogSubsystem.SCHEDULER, LogLevel.DEBUG, "Process {} gets a {} tick slice", running.getPid(), timeSlice);
+        return running;
+    }
+
+    /**
+     * The target latency shared by weight between the running process and everything waiting.
+     * Once there are too many processes for that to be at least the minimum granularity each, the period stretches.
+     */
+    private int timeSlice(int weight) {
+        long runnable = tree.size() + 1;
+        long period = Math.max(targetLatency, runnable * minGranularity);
+        long totalWeight = queuedWeight + weight;
+        return (int) Math.max(minGranularity, period * weight / totalWeight);
+    }
+
+    private void updateMinVruntime() {
+        long min = running != null ? running.getVruntime() : Long.MAX_VALUE;
+        if (!tree.isEmpty()) {
+            min = Math.min(min, tree.first().getVruntime());
+        }
+        if (min != Long.MAX_VALUE) {
+            minVruntime = Math.max(minVruntime, min);
+        }
+    }
+
+    @Override
+    public ProcessControlBlock stealProcess() {
+        //the right end of the tree is furthest from running here
+        Entry entry = tree.pollLast();
+        if (entry == null) {
+            return null;
+        }
+
+        ProcessControlBlock pcb = entry.getPcb();
+        queuedWeight -= weightOf(pcb.getNice());
+        //the other core's virtual clock is somewhere else, so only take over how far ahead of this queue it was
+        pcb.setVruntime(pcb.getVruntime() - minVruntime);
+        return pcb;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return tree.isEmpty();
+    }
+
+    @Override
+    public int size() {
+        return tree.size();
+    }
+
+    /**
+     * Charges the running process one tick of virtual runtime
+     *
+     * @return true once its slice is used up and someone else is waiting
+     */
+    @Override
+    public boolean incrementQuantumCounter() {
+        quantumCounter++;
+        if (running == null) {
+            return false;
+        }
+
+        running.setVruntime(running.getVruntime() + (long) VRUNTIME_SCALE * NICE_0_WEIGHT / weightOf(running.getNice()));
+        updateMinVruntime();
+        return quantumCounter >= timeSlice && !tree.isEmpty();
+    }
+
+    @Override
+    public int[] getQuantum() {
+        return new int[]{targetLatency, minGranularity};
+    }
+
+    @Override
+    public int getQuantumCounter() {
+        return quantumCounter;
+    }
+
+    @Override
+    public void resetQuantumCounter() {
+        quantumCounter = 0;
+    }
+
+    @Override
+    public QueueId getQueueId() {
+        return QueueId.CFS_QUEUE;
+    }
+
+    @Override
+    public String toString() {
+        return "CFSReadyQueue latency " + targetLatency + " granularity " + minGranularity;
+    }
+
+    static class Entry {
+        private final ProcessControlBlock pcb;
+        private final long vruntime;
+        private final long sequence;
+
+        Entry(ProcessControlBlock pcb, long vruntime, long sequence) {
+            this.pcb = pcb;
+            this.vruntime = vruntime;
+            this.sequence = sequence;
+        }
+
+        public ProcessControlBlock getPcb() {
+            return pcb;
+        }
+
+        public long getVruntime() {
+            return vruntime;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+    }
+}
@@ -3,11 +3,11 @@ package os.queues;
 import os.ProcessControlBlock;
 import os.ProcessStatus;
 
+import java.util.Deque;
 import java.util.LinkedList;
-import java.util.Queue;
 
 public class FCFSReadyQueue implements IReadyQueue {
-    Queue<ProcessControlBlock> queue = new LinkedList<>();
+    Deque<ProcessControlBlock> queue = new LinkedList<>();
 
     @Override
     public void addProcess(ProcessControlBlock pcb) {
@@ -20,6 +20,12 @@ public class FCFSReadyQueue implements IReadyQueue {
         return queue.poll();
     }
 
+    @Override
+    public ProcessControlBlock stealProcess() {
+        //the back of the line has the longest wait ahead of it
+        return queue.pollLast();
+    }
+
     @Override
     public boolean isEmpty() {
         return queue.isEmpty();
@@ -2,24 +2,48 @@ package os.queues;
 
 import os.ProcessControlBlock;
 import os.ProcessStatus;
+import os.util.LogLevel;
+import os.util.LogSubsystem;
 import os.util.Logging;
+import os.util.TraceEvent;
+import os.util.TraceRecorder;
+import vm.VmInstance;
 import vm.hardware.Clock;
 
-import java.util.LinkedList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Random;
 
+/**
+ * Processes blocked on IO, kept in a min-heap on release time so whoever is due first leaves first
+ * no matter when they came in. Processes released at the same time leave in the order they arrived.
+ */
 public class IOQueue implements Logging {
+    private static final Comparator<IoProcess> RELEASE_ORDER =
+            Comparator.comparingInt(IoProcess::getIoTime).thenComparingLong(IoProcess::getSequence);
+
     Clock clock = Clock.getInstance();
-    private final LinkedList<IoProcess> ioQueue = new LinkedList<>();
+    private final Random random = VmInstance.current().getRandom();
+    private final TraceRecorder trace = TraceRecorder.getInstance();
+    private final PriorityQueue<IoProcess> ioQueue = new PriorityQueue<>(RELEASE_ORDER);
+    private long sequence = 0;
 
     public void add(ProcessControlBlock pcb) {
-        log("Adding process " + pcb.getPid() + " to IO queue");
+        log(LogSubsystem.IO, LogLevel.INFO, "Adding process {} to IO queue", pcb.getPid());
         pcb.setStatus(ProcessStatus.WAITING, QueueId.IO_QUEUE);
-        IoProcess ioProcess = new IoProcess(pcb);
+        IoProcess ioProcess = new IoProcess(pcb, getRandomTime() + clock.getTime(), sequence++);
         ioQueue.add(ioProcess);
+        trace.record(TraceEvent.IO_START, pcb.getCore(), pcb.getPid(), ioProcess.getIoTime());
+    }
+
+    private int getRandomTime() {
+        return random.nextInt(10) + 1;
     }
 
     public ProcessControlBlock poll() {
-        return ioQueue.poll().getPcb();
+        ProcessControlBlock pcb = ioQueue.poll().getPcb();
+        trace.record(TraceEvent.IO_END, pcb.getCore(), pcb.getPid());
+        return pcb;
     }
 
     public int size() {
@@ -30,6 +54,19 @@ public class IOQueue implements Logging {
         return ioQueue.isEmpty();
     }
 
+    /**
+     * The head is always the earliest release, so its release time is the next time anything can happen in this queue
+     *
+     * @return the next release time or -1 if the queue is empty
+     */
+    public int getNextReleaseTime() {
+        if (ioQueue.isEmpty()) {
+            return -1;
+        }
+
+        return ioQueue.peek().getIoTime();
+    }
+
     public boolean isReadyToLeave() {
         if (!ioQueue.isEmpty()) {
             IoProcess ioProcess = ioQueue.peek();
@@ -42,11 +79,13 @@ public class IOQueue implements Logging {
     static class IoProcess implements Logging {
         private final ProcessControlBlock pcb;
         private final int ioTime;
+        private final long sequence;
 
-        public IoProcess(ProcessControlBlock pcb) {
+        public IoProcess(ProcessControlBlock pcb, int ioTime, long sequence) {
             this.pcb = pcb;
-            this.ioTime = getRandomTime() + Clock.getInstance().getTime();
-            log("IO release time for process " + pcb.getPid() + " is " + ioTime);
+            this.ioTime = ioTime;
+            this.sequence = sequence;
+            log(LogSubsystem.IO, LogLevel.INFO, "IO release time for process {} is {}", pcb.getPid(), ioTime);
         }
 
         public ProcessControlBlock getPcb() {
@@ -57,8 +96,8 @@ public class IOQueue implements Logging {
             return ioTime;
         }
 
-        private int getRandomTime() {
-            return (int) (Math.random() * 10) + 1;
+        public long getSequence() {
+            return sequence;
         }
     }
 }
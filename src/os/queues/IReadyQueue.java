@@ -27,4 +27,24 @@ public interface IReadyQueue extends Logging {
     void resetQuantumCounter();
 
     QueueId getQueueId();
+
+    /**
+     * Called when the clock jumps over idle time instead of ticking through it.
+     * Queues whose state changes every time they are polled while empty catch up here, all of it: a queue that
+     * moves a level, a deadline or a counter on an empty poll and doesn't replay it here makes event mode drift
+     * from tick mode. bench.ClockModeEquivalence runs every policy both ways to catch that.
+     *
+     * @param polls the number of empty getNextProcess calls that were skipped, one per tick starting the tick
+     *              after the current clock time
+     */
+    default void skipEmptyPolls(int polls) {
+        //most queues don't change when polled empty
+    }
+
+    /**
+     * Gives up a waiting process to an idle core. Queues hand over the process that would wait the longest here.
+     *
+     * @return the process to move, null if the queue is empty
+     */
+    ProcessControlBlock stealProcess();
 }
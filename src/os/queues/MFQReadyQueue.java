@@ -2,184 +2,241 @@ package os.queues;
 
 import os.ProcessControlBlock;
 import os.ProcessStatus;
-
+import os.util.LogLevel;
+import os.util.LogSubsystem;
+import vm.hardware.Clock;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Multilevel feedback queue with any number of levels. Every level but the last is round robin with its own quantum,
+ * the last level is first come first served.
+ * The queue works on one level until it runs dry and then moves on to the next non-empty level, wrapping around
+ * to the top. A bitmap of non-empty levels makes finding that level O(1), and every process carries its level
+ * with it so placing it again doesn't need its history.
+ * Processes move down a level when they keep using up their quantum and back up when they mostly give the cpu up early.
+ * The bottom level never moves up on its own, so an optional periodic boost puts everything back on top
+ * to keep it from starving behind a steady stream of interactive processes.
+ */
 public class MFQReadyQueue implements IReadyQueue {
-    private static final int TOTAL_QUANTUMS = 5;
     private static final double TOTAL_BURST_PERCENTAGE = 0.8;
 
-    private final MFQReadyQueue1 rrReadyQueue1;
-    private final MFQReadyQueue2 rrReadyQueue2;
-    private final MFQReadyQueue3 fcfsReadyQueue;
+    private final Clock clock = Clock.getInstance();
+    private final List<Deque<ProcessControlBlock>> levels = new ArrayList<>();
+    //quantum per level, -1 for the first come first served bottom level
+    private final int[] quantums;
+    private final int[] quantumCounters;
+    //bit i is set while level i has something in it
+    private int nonEmptyLevels = 0;
+    private int currentLevel = 0;
 
-    private IReadyQueue currentQueue;
-    private int currentQuantum = -1;
+    //0 turns boosting off
+    private final int boostPeriod;
+    private int nextBoost;
 
     public MFQReadyQueue(int quantum1, int quantum2) {
-        rrReadyQueue1 = new MFQReadyQueue1(quantum1);
-        rrReadyQueue2 = new MFQReadyQueue2(quantum2);
-        fcfsReadyQueue = new MFQReadyQueue3();
+        this(new int[]{quantum1, quantum2}, 0);
+    }
+
+    /**
+     * @param quantums    the quantum of every round robin level from the top down, there's one more level below them
+     * @param boostPeriod how often in ticks every process gets put back on the top level, 0 to never boost
+     */
+    public MFQReadyQueue(int[] quantums, int boostPeriod) {
+        if (quantums.length < 1 || quantums.length >= QueueId.MAX_MFQ_LEVELS) {
+            throw new IllegalArgumentException("Need between 1 and " + (QueueId.MAX_MFQ_LEVELS - 1) + " quantums");
+        }
 
-        currentQueue = rrReadyQueue1;
+        this.quantums = Arrays.copyOf(quantums, quantums.length + 1);
+        this.quantums[quantums.length] = -1;
+        this.quantumCounters = new int[this.quantums.length];
+        for (int i = 0; i < this.quantums.length; i++) {
+            levels.add(new ArrayDeque<>());
+        }
+
+        this.boostPeriod = boostPeriod;
+        this.nextBoost = clock.getTime() + boostPeriod;
     }
 
     @Override
     public void addProcess(ProcessControlBlock pcb) {
-        QueueId lastReadyQueue = pcb.getLastReadyQueue();
+        int level = nextLevel(pcb);
+        pcb.setMfqLevel(level);
+        enqueue(level, pcb);
+    }
+
+    /**
+     * Works out where a process goes from the level it was last in and how many of its recent bursts it finished.
+     * A process that is still READY was stolen from another core's queue, it was placed when it got there and
+     * hasn't run since, so it keeps its level.
+     */
+    private int nextLevel(ProcessControlBlock pcb) {
+        int level = pcb.getMfqLevel();
+        if (level < 0) {
+            return 0;
+        }
+        if (pcb.getStatus() == ProcessStatus.READY) {
+            return level;
+        }
+
+        int bottom = levels.size() - 1;
+        if (level >= bottom) {
+            return bottom;
+        }
+
         Double burstCompletionPercentage = pcb.getBurstCompletionPercentage();
-        QueueId addedQueue = null;
-
-        if (lastReadyQueue == null) {
-            rrReadyQueue1.addProcess(pcb);
-            addedQueue = QueueId.MFQ_QUEUE_1;
-        } else if (lastReadyQueue == QueueId.MFQ_QUEUE_1) {
-            if (burstCompletionPercentage != null && burstCompletionPercentage < TOTAL_BURST_PERCENTAGE) {
-                rrReadyQueue2.addProcess(pcb);
-                addedQueue = QueueId.MFQ_QUEUE_2;
-            } else {
-                rrReadyQueue1.addProcess(pcb);
-                addedQueue = QueueId.MFQ_QUEUE_1;
-            }
-        } else if (lastReadyQueue == QueueId.MFQ_QUEUE_2) {
-            if (burstCompletionPercentage != null && burstCompletionPercentage < TOTAL_BURST_PERCENTAGE) {
-                fcfsReadyQueue.addProcess(pcb);
-                addedQueue = QueueId.MFQ_QUEUE_3;
-            } else if (burstCompletionPercentage != null && burstCompletionPercentage > TOTAL_BURST_PERCENTAGE) {
-                rrReadyQueue1.addProcess(pcb);
-                addedQueue = QueueId.MFQ_QUEUE_1;
-            } else {
-                rrReadyQueue2.addProcess(pcb);
-                addedQueue = QueueId.MFQ_QUEUE_2;
-            }
-        } else if (lastReadyQueue == QueueId.MFQ_QUEUE_3) {
-            fcfsReadyQueue.addProcess(pcb);
-            addedQueue = QueueId.MFQ_QUEUE_3;
+        if (burstCompletionPercentage == null) {
+            return level;
         }
+        if (burstCompletionPercentage < TOTAL_BURST_PERCENTAGE) {
+            return level + 1;
+        }
+        if (burstCompletionPercentage > TOTAL_BURST_PERCENTAGE && level > 0) {
+            return level - 1;
+        }
+        return level;
+    }
 
-        pcb.setStatus(ProcessStatus.READY, addedQueue);
+    private void enqueue(int level, ProcessControlBlock pcb) {
+        levels.get(level).add(pcb);
+        nonEmptyLevels |= 1 << level;
+        pcb.setStatus(ProcessStatus.READY, QueueId.mfqLevel(level));
     }
 
     @Override
     public ProcessControlBlock getNextProcess() {
-        determineCurrentQueue();
-        return currentQueue.getNextProcess();
+        if (boostPeriod > 0 && clock.getTime() >= nextBoost) {
+            boost();
+            nextBoost = clock.getTime() + boostPeriod;
+        }
+
+        determineCurrentLevel();
+        return poll(currentLevel, false);
     }
 
-    private void determineCurrentQueue() {
-        if (currentQuantum >= TOTAL_QUANTUMS || currentQueue.isEmpty()) {
-            incrementCurrentQueue();
-            currentQuantum = currentQueue == fcfsReadyQueue ? TOTAL_QUANTUMS : 0;
+    /**
+     * Stays on the current level while it has something in it, otherwise moves to the next non-empty level down,
+     * wrapping around to the top. When everything is empty it still moves on by one.
+     */
+    private void determineCurrentLevel() {
+        if ((nonEmptyLevels & (1 << currentLevel)) != 0) {
+            return;
         }
-    }
 
-    private void incrementCurrentQueue(){
-        int count = 0;
-        while(currentQueue.isEmpty()) {
-            if (currentQueue == rrReadyQueue1) {
-                currentQueue = rrReadyQueue2;
-                count++;
-            } else if (currentQueue == rrReadyQueue2) {
-                currentQueue = fcfsReadyQueue;
-                count++;
-            } else {
-                currentQueue = rrReadyQueue1;
-                count++;
-            }
+        if (nonEmptyLevels == 0) {
+            currentLevel = (currentLevel + 1) % levels.size();
+            return;
+        }
 
-            if(count > 3) {
-                break;
-            }
+        int below = nonEmptyLevels & -(1 << (currentLevel + 1));
+        currentLevel = Integer.numberOfTrailingZeros(below != 0 ? below : nonEmptyLevels);
+        log(LogSubsystem.SCHEDULER, LogLevel.INFO, "Current Queue is now level {}", currentLevel + 1);
+    }
+
+    private ProcessControlBlock poll(int level, boolean fromBack) {
+        Deque<ProcessControlBlock> queue = levels.get(level);
+        ProcessControlBlock pcb = fromBack ? queue.pollLast() : queue.poll();
+        if (queue.isEmpty()) {
+            nonEmptyLevels &= ~(1 << level);
         }
+        return pcb;
     }
 
-    private boolean setCurrentQueue(IReadyQueue queue) {
-        if (!queue.isEmpty()) {
-            currentQueue = queue;
-            log("Current Queue is now: " + currentQueue.toString());
-            return true;
+    /**
+     * Puts every waiting process back on the top level, oldest level first so the longest waiting go first
+     */
+    public void boost() {
+        int lower = nonEmptyLevels & ~1;
+        if (lower == 0) {
+            return;
         }
 
-        if (queue == rrReadyQueue1) {
-            currentQueue = rrReadyQueue1;
-            log("Current Queue is now: " + currentQueue.toString());
-            return true;
+        log(LogSubsystem.SCHEDULER, LogLevel.INFO, "Boosting every process to the top level");
+        for (int level = levels.size() - 1; level > 0; level--) {
+            Deque<ProcessControlBlock> queue = levels.get(level);
+            while (!queue.isEmpty()) {
+                ProcessControlBlock pcb = queue.poll();
+                pcb.setMfqLevel(0);
+                enqueue(0, pcb);
+            }
         }
+        nonEmptyLevels &= 1;
+    }
 
-        return false;
+    @Override
+    public void skipEmptyPolls(int polls) {
+        //every empty poll moves the current level over by one
+        currentLevel = (currentLevel + polls) % levels.size();
+
+        //there's nothing to boost, but the first skipped poll at or after the deadline still moves it on,
+        //and so does every poll a whole period after that
+        int first = Math.max(clock.getTime() + 1, nextBoost);
+        int last = clock.getTime() + polls;
+        if (boostPeriod > 0 && first <= last) {
+            nextBoost = first + ((last - first) / boostPeriod + 1) * boostPeriod;
+        }
     }
 
+    @Override
+    public ProcessControlBlock stealProcess() {
+        //the lowest level waits the longest, so give that work away first
+        if (nonEmptyLevels == 0) {
+            return null;
+        }
+        return poll(31 - Integer.numberOfLeadingZeros(nonEmptyLevels), true);
+    }
 
     @Override
     public boolean isEmpty() {
-        return rrReadyQueue1.isEmpty() && rrReadyQueue2.isEmpty() && fcfsReadyQueue.isEmpty();
+        return nonEmptyLevels == 0;
     }
 
     @Override
     public int size() {
-        return rrReadyQueue1.size() + rrReadyQueue2.size() + fcfsReadyQueue.size();
+        int size = 0;
+        for (Deque<ProcessControlBlock> level : levels) {
+            size += level.size();
+        }
+        return size;
     }
 
     @Override
     public boolean incrementQuantumCounter() {
-        return currentQueue.incrementQuantumCounter();
+        if (quantums[currentLevel] < 0) {
+            //no action needed on the fcfs level
+            return false;
+        }
+
+        quantumCounters[currentLevel]++;
+        return quantumCounters[currentLevel] == quantums[currentLevel];
     }
 
     @Override
     public int[] getQuantum() {
-        return new int[]{rrReadyQueue1.getQuantum()[0], rrReadyQueue2.getQuantum()[0]};
+        return new int[]{quantums[0], quantums.length > 2 ? quantums[1] : -1};
     }
 
     @Override
     public int getQuantumCounter() {
-        return currentQueue.getQuantumCounter();
+        return quantums[currentLevel] < 0 ? -1 : quantumCounters[currentLevel];
     }
 
     @Override
     public void resetQuantumCounter() {
-        currentQuantum++;
-        currentQueue.resetQuantumCounter();
+        quantumCounters[currentLevel] = 0;
     }
 
     @Override
     public QueueId getQueueId() {
-        return currentQueue.getQueueId();
+        return QueueId.mfqLevel(currentLevel);
     }
 
-    static class MFQReadyQueue1 extends RRReadyQueue {
-        public MFQReadyQueue1(int quantum) {
-            super(quantum);
-        }
-
-        @Override
-        public QueueId getQueueId() {
-            return QueueId.MFQ_QUEUE_1;
-        }
-
-        @Override
-        public void addProcess(ProcessControlBlock pcb) {
-            queue.add(pcb);
-        }
-    }
-
-    static class MFQReadyQueue2 extends MFQReadyQueue1 {
-        public MFQReadyQueue2(int quantum) {
-            super(quantum);
-        }
-
-        @Override
-        public QueueId getQueueId() {
-            return QueueId.MFQ_QUEUE_2;
-        }
-    }
-
-    static class MFQReadyQueue3 extends FCFSReadyQueue {
-        @Override
-        public QueueId getQueueId() {
-            return QueueId.MFQ_QUEUE_3;
-        }
-
-        @Override
-        public void addProcess(ProcessControlBlock pcb) {
-            queue.add(pcb);
-        }
+    @Override
+    public String toString() {
+        return "MFQReadyQueue " + Arrays.toString(quantums) + (boostPeriod > 0 ? " boost " + boostPeriod : "");
     }
 }
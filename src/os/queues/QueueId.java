@@ -14,11 +14,25 @@ public enum QueueId {
     IO_QUEUE(6),
     TERMINATED_QUEUE(7),
     JOB_QUEUE(8),
-    RUNNING_QUEUE(9);
+    RUNNING_QUEUE(9),
+    SJF_QUEUE(10),
+    SRTF_QUEUE(11),
+    CFS_QUEUE(12),
+    MFQ_QUEUE_4(13),
+    MFQ_QUEUE_5(14),
+    MFQ_QUEUE_6(15),
+    MFQ_QUEUE_7(16),
+    MFQ_QUEUE_8(17);
 
     private final int id;
 
-    public static final EnumSet<QueueId> READY_QUEUES = EnumSet.of(MFQ_QUEUE_1, MFQ_QUEUE_2, MFQ_QUEUE_3, RR_QUEUE, FCFS_QUEUE);
+    public static final EnumSet<QueueId> READY_QUEUES = EnumSet.of(MFQ_QUEUE_1, MFQ_QUEUE_2, MFQ_QUEUE_3, MFQ_QUEUE_4,
+            MFQ_QUEUE_5, MFQ_QUEUE_6, MFQ_QUEUE_7, MFQ_QUEUE_8, RR_QUEUE, FCFS_QUEUE, SJF_QUEUE, SRTF_QUEUE, CFS_QUEUE);
+
+    //the levels of the multilevel feedback queue, top level first
+    private static final QueueId[] MFQ_LEVELS = {MFQ_QUEUE_1, MFQ_QUEUE_2, MFQ_QUEUE_3, MFQ_QUEUE_4,
+            MFQ_QUEUE_5, MFQ_QUEUE_6, MFQ_QUEUE_7, MFQ_QUEUE_8};
+    public static final int MAX_MFQ_LEVELS = MFQ_LEVELS.length;
 
     QueueId(int id) {
         this.id = id;
@@ -27,4 +41,11 @@ public enum QueueId {
     public int getId() {
         return id;
     }
+
+    /**
+     * @param level 0 for the top level
+     */
+    public static QueueId mfqLevel(int level) {
+        return MFQ_LEVELS[level];
+    }
 }
@@ -3,11 +3,11 @@ package os.queues;
 import os.ProcessControlBlock;
 import os.ProcessStatus;
 
+import java.util.Deque;
 import java.util.LinkedList;
-import java.util.Queue;
 
 public class RRReadyQueue implements IReadyQueue{
-    Queue<ProcessControlBlock> queue = new LinkedList<>();
+    Deque<ProcessControlBlock> queue = new LinkedList<>();
     private final int quantum;
     private int quantumCounter = 0;
 
@@ -26,6 +26,12 @@ public class RRReadyQueue implements IReadyQueue{
         return queue.poll();
     }
 
+    @Override
+    public ProcessControlBlock stealProcess() {
+        //the back of the line has the longest wait ahead of it
+        return queue.pollLast();
+    }
+
     @Override
     public boolean isEmpty() {
         return queue.isEmpty();
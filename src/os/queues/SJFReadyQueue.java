@@ -0,0 +1,151 @@
+package os.queues;
+
+import os.ProcessControlBlock;
+import os.ProcessStatus;
+import os.util.LogLevel;
+import os.util.LogSubsystem;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Shortest job first. The next cpu burst of a process is predicted with an exponential average over the
+ * bursts it has already run: estimate = alpha * lastBurst + (1 - alpha) * previousEstimate.
+ * Processes wait in a min-heap on their prediction, ties go to whoever got here first.
+ * Once a process is running it keeps the cpu until it does IO or finishes.
+ */
+public class SJFReadyQueue implements IReadyQueue {
+    public static final double DEFAULT_ALPHA = 0.5;
+    //what we guess for a process that hasn't finished a burst yet
+    static final double INITIAL_ESTIMATE = 10;
+
+    private static final Comparator<Entry> SHORTEST_FIRST =
+            Comparator.comparingDouble(Entry::getKey).thenComparingLong(Entry::getSequence);
+
+    private final double alpha;
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>(SHORTEST_FIRST);
+    private long sequence = 0;
+
+    public SJFReadyQueue() {
+        this(DEFAULT_ALPHA);
+    }
+
+    /**
+     * @param alpha how much the last burst counts against the history, between 0 and 1
+     */
+    public SJFReadyQueue(double alpha) {
+        if (alpha < 0 || alpha > 1) {
+            throw new IllegalArgumentException("alpha has to be between 0 and 1: " + alpha);
+        }
+        this.alpha = alpha;
+    }
+
+    @Override
+    public void addProcess(ProcessControlBlock pcb) {
+        boolean backFromIo = pcb.getStatus() == ProcessStatus.WAITING;
+        pcb.setStatus(ProcessStatus.READY, getQueueId());
+
+        if (pcb.getBurstEstimate() < 0) {
+            pcb.setBurstEstimate(INITIAL_ESTIMATE);
+        }
+        if (backFromIo) {
+            //the burst that ended in this IO is done, fold it into the prediction
+            pcb.setBurstEstimate(alpha * pcb.getLastCpuBurst() + (1 - alpha) * pcb.getBurstEstimate());
+            log(LogSubsystem.SCHEDULER, LogLevel.DEBUG, () -> "Process " + pcb.getPid() + " next burst predicted at " + pcb.getBurstEstimate());
+        }
+
+        queue.add(new Entry(pcb, getKey(pcb), sequence++));
+    }
+
+    /**
+     * @return what the heap is ordered on, the whole predicted burst
+     */
+    double getKey(ProcessControlBlock pcb) {
+        return pcb.getBurstEstimate();
+    }
+
+    @Override
+    public ProcessControlBlock getNextProcess() {
+        return poll();
+    }
+
+    @Override
+    public ProcessControlBlock stealProcess() {
+        //an idle core can run it straight away, so hand over the shortest job
+        return poll();
+    }
+
+    private ProcessControlBlock poll() {
+        Entry entry = queue.poll();
+        return entry == null ? null : entry.getPcb();
+    }
+
+    double peekKey() {
+        return queue.isEmpty() ? Double.MAX_VALUE : queue.peek().getKey();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    @Override
+    public int size() {
+        return queue.size();
+    }
+
+    @Override
+    public boolean incrementQuantumCounter() {
+        //no preemption, the burst runs to the end
+        return false;
+    }
+
+    @Override
+    public int[] getQuantum() {
+        //no quantum
+        return new int[]{-1, -1};
+    }
+
+    @Override
+    public int getQuantumCounter() {
+        return -1;
+    }
+
+    @Override
+    public void resetQuantumCounter() {
+    }
+
+    @Override
+    public QueueId getQueueId() {
+        return QueueId.SJF_QUEUE;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " alpha " + alpha;
+    }
+
+    static class Entry {
+        private final ProcessControlBlock pcb;
+        private final double key;
+        private final long sequence;
+
+        Entry(ProcessControlBlock pcb, double key, long sequence) {
+            this.pcb = pcb;
+            this.key = key;
+            this.sequence = sequence;
+        }
+
+        public ProcessControlBlock getPcb() {
+            return pcb;
+        }
+
+        public double getKey() {
+            return key;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package os.queues;
+
+import os.ProcessControlBlock;
+import os.util.LogLevel;
+import os.util.LogSubsystem;
+
+/**
+ * Shortest remaining time first, the preemptive version of SJF.
+ * The heap is ordered on what is left of the predicted burst, and the running process gets kicked off
+ * as soon as something in the queue is predicted to finish its burst sooner.
+ */
+public class SRTFReadyQueue extends SJFReadyQueue {
+    private ProcessControlBlock running;
+    //predicted time left on the running process when it was dispatched
+    private double runningRemaining;
+    private int quantumCounter = 0;
+
+    public SRTFReadyQueue() {
+        super();
+    }
+
+    public SRTFReadyQueue(double alpha) {
+        super(alpha);
+    }
+
+    @Override
+    double getKey(ProcessControlBlock pcb) {
+        return Math.max(0, pcb.getBurstEstimate() - pcb.getCurrentCpuBurst());
+    }
+
+    @Override
+    public ProcessControlBlock getNextProcess() {
+        runningRemaining = peekKey();
+        running = super.getNextProcess();
+        return running;
+    }
+
+    @Override
+    public boolean incrementQuantumCounter() {
+        quantumCounter++;
+        if (running == null || peekKey() >= runningRemaining - quantumCounter) {
+            return false;
+        }
+
+        log(LogSubsystem.SCHEDULER, LogLevel.INFO, "Process {} preempted by a shorter job", running.getPid());
+        return true;
+    }
+
+    @Override
+    public int getQuantumCounter() {
+        return quantumCounter;
+    }
+
+    @Override
+    public void resetQuantumCounter() {
+        quantumCounter = 0;
+    }
+
+    @Override
+    public QueueId getQueueId() {
+        return QueueId.SRTF_QUEUE;
+    }
+}
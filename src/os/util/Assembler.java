@@ -0,0 +1,245 @@
+package os.util;
+
+import vm.hardware.Cpu;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Assembles osX assembly (.asm) into the .osx images Memory.load takes, without leaving the JVM.
+ * An image is a 12 byte header (code size, starting pc and loader address, little endian) followed by one
+ * 6 byte instruction per line, laid out the same way the osx binary lays them out, unused bytes are spaces.
+ * Only the instructions the cpu can execute are accepted. Anything after a ';' is a comment, blank lines are skipped.
+ * Assembling is stateless so whole directories can be done in parallel.
+ */
+public class Assembler {
+    public static final String SOURCE_EXTENSION = ".asm";
+    public static final String IMAGE_EXTENSION = ".osx";
+
+    private static final int HEADER_SIZE = 12;
+    private static final int INSTRUCTION_SIZE = 6;
+    private static final byte PADDING = ' ';
+    private static final int REGISTERS = 12;
+
+    /**
+     * @param name  used in error messages, usually the file name
+     * @param lines the source, one instruction per line
+     * @return the image, ready for Memory.load or to be written out as a .osx file
+     * @throws IllegalArgumentException naming the line with the first error
+     */
+    public static byte[] assemble(String name, List<String> lines, int loaderAddress) {
+        if (loaderAddress < 0) {
+            throw new IllegalArgumentException(name + ": loader address less than zero");
+        }
+
+        List<String[]> instructions = new ArrayList<>();
+        List<Integer> lineNumbers = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            int comment = line.indexOf(';');
+            if (comment >= 0) {
+                line = line.substring(0, comment);
+            }
+            line = line.trim();
+            if (!line.isEmpty()) {
+                instructions.add(line.split("\\s+"));
+                lineNumbers.add(i + 1);
+            }
+        }
+
+        int codeSize = instructions.size() * INSTRUCTION_SIZE;
+        ByteBuffer image = ByteBuffer.allocate(HEADER_SIZE + codeSize).order(ByteOrder.LITTLE_ENDIAN);
+        image.putInt(codeSize).putInt(0).putInt(loaderAddress);
+        for (int i = 0; i < instructions.size(); i++) {
+            try {
+                encode(instructions.get(i), image);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(name + ":" + lineNumbers.get(i) + ": " + e.getMessage());
+            }
+        }
+        return image.array();
+    }
+
+    public static byte[] assemble(Path source, int loaderAddress) throws IOException {
+        return assemble(source.toString(), Files.readAllLines(source), loaderAddress);
+    }
+
+    /**
+     * Writes the image next to the source, file.asm becomes file.osx
+     *
+     * @return the image file
+     */
+    public static Path assembleFile(Path source, int loaderAddress) throws IOException {
+        Path image = imagePath(source);
+        Files.write(image, assemble(source, loaderAddress));
+        return image;
+    }
+
+    /**
+     * Assembles every .asm file in the directory (not its subdirectories) on a work stealing pool,
+     * every image gets the same loader address
+     *
+     * @return what happened to each file, sorted by file name
+     */
+    public static List<Result> assembleDirectory(Path directory, int loaderAddress, int threads) throws IOException {
+        List<Path> sources;
+        try (Stream<Path> files = Files.list(directory)) {
+            sources = files.filter(file -> file.toString().toLowerCase(Locale.ROOT).endsWith(SOURCE_EXTENSION))
+                    .sorted()
+                    .toList();
+        }
+
+        ExecutorService executor = Executors.newWorkStealingPool(threads);
+        try {
+            List<Callable<Result>> tasks = new ArrayList<>();
+            for (Path source : sources) {
+                tasks.add(() -> {
+                    try {
+                        return new Result(source, assembleFile(source, loaderAddress), null);
+                    } catch (IllegalArgumentException | IOException e) {
+                        return new Result(source, null, e.getMessage());
+                    }
+                });
+            }
+
+            List<Result> results = new ArrayList<>();
+            for (Future<Result> future : executor.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Assembling " + directory + " was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Assembling " + directory + " failed", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public static Path imagePath(Path source) {
+        String name = source.getFileName().toString();
+        if (name.toLowerCase(Locale.ROOT).endsWith(SOURCE_EXTENSION)) {
+            name = name.substring(0, name.length() - SOURCE_EXTENSION.length());
+        }
+        return source.resolveSibling(name + IMAGE_EXTENSION);
+    }
+
+    private static void encode(String[] tokens, ByteBuffer image) {
+        int start = image.position();
+        switch (tokens[0].toUpperCase(Locale.ROOT)) {
+            case "ADD":
+                threeRegisters(Cpu.ADD, tokens, image);
+                break;
+            case "SUB":
+                threeRegisters(Cpu.SUB, tokens, image);
+                break;
+            case "MUL":
+                threeRegisters(Cpu.MUL, tokens, image);
+                break;
+            case "DIV":
+                threeRegisters(Cpu.DIV, tokens, image);
+                break;
+            case "MOV":
+                operands(tokens, 2);
+                image.put((byte) Cpu.MOV).put(register(tokens[1])).put(register(tokens[2]));
+                break;
+            case "STR":
+                operands(tokens, 2);
+                image.put((byte) Cpu.STR).put(register(tokens[1])).put(register(tokens[2]));
+                break;
+            case "MVI":
+                operands(tokens, 2);
+                image.put((byte) Cpu.MVI).put(register(tokens[1])).putInt(immediate(tokens[2]));
+                break;
+            case "SWI":
+                operands(tokens, 1);
+                image.put((byte) Cpu.SWI).putInt(immediate(tokens[1]));
+                break;
+            default:
+                throw new IllegalArgumentException(tokens[0] + " unknown");
+        }
+
+        while (image.position() < start + INSTRUCTION_SIZE) {
+            image.put(PADDING);
+        }
+    }
+
+    private static void threeRegisters(int opcode, String[] tokens, ByteBuffer image) {
+        operands(tokens, 3);
+        image.put((byte) opcode).put(register(tokens[1])).put(register(tokens[2])).put(register(tokens[3]));
+    }
+
+    private static void operands(String[] tokens, int count) {
+        if (tokens.length - 1 < count) {
+            throw new IllegalArgumentException(tokens[0] + " needs " + count + " operands");
+        }
+        if (tokens.length - 1 > count) {
+            throw new IllegalArgumentException(tokens[count + 1] + " found after instruction");
+        }
+    }
+
+    private static byte register(String token) {
+        if (token.length() > 1 && Character.toUpperCase(token.charAt(0)) == 'R') {
+            try {
+                int register = Integer.parseInt(token.substring(1));
+                if (register >= 0 && register < REGISTERS) {
+                    return (byte) register;
+                }
+            } catch (NumberFormatException e) {
+                //falls through to the error below
+            }
+        }
+        throw new IllegalArgumentException(token + " not a register");
+    }
+
+    private static int immediate(String token) {
+        try {
+            return Integer.parseInt(token);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(token + " not a valid immediate value");
+        }
+    }
+
+    /**
+     * One file of a directory, either the image it was assembled into or why it couldn't be
+     */
+    public static class Result {
+        private final Path source;
+        private final Path image;
+        private final String error;
+
+        Result(Path source, Path image, String error) {
+            this.source = source;
+            this.image = image;
+            this.error = error;
+        }
+
+        public Path getSource() {
+            return source;
+        }
+
+        public Path getImage() {
+            return image;
+        }
+
+        /**
+         * @return null if the file assembled
+         */
+        public String getError() {
+            return error;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package os.util;
+
+import java.util.Random;
+
+/**
+ * A whole number distribution for generated workloads: a fixed value, uniform between two values, or exponential
+ * around a mean (Poisson arrivals when used for the gaps between them).
+ * Written as "50", "10-200" or "exp:100".
+ */
+public class Distribution {
+    private enum Kind {FIXED, UNIFORM, EXPONENTIAL}
+
+    private final Kind kind;
+    private final int low;
+    private final int high;
+    private final double mean;
+
+    private Distribution(Kind kind, int low, int high, double mean) {
+        this.kind = kind;
+        this.low = low;
+        this.high = high;
+        this.mean = mean;
+    }
+
+    public static Distribution fixed(int value) {
+        return new Distribution(Kind.FIXED, value, value, value);
+    }
+
+    public static Distribution uniform(int low, int high) {
+        if (high < low) {
+            throw new IllegalArgumentException("Uniform range " + low + "-" + high + " is backwards");
+        }
+        return new Distribution(Kind.UNIFORM, low, high, (low + high) / 2.0);
+    }
+
+    public static Distribution exponential(double mean) {
+        if (mean <= 0) {
+            throw new IllegalArgumentException("Exponential mean has to be above zero");
+        }
+        return new Distribution(Kind.EXPONENTIAL, 0, Integer.MAX_VALUE, mean);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the text isn't one of the three forms
+     */
+    public static Distribution parse(String text) {
+        try {
+            if (text.startsWith("exp:")) {
+                return exponential(Double.parseDouble(text.substring(4)));
+            }
+            int dash = text.indexOf('-', 1);
+            if (dash > 0) {
+                return uniform(Integer.parseInt(text.substring(0, dash)), Integer.parseInt(text.substring(dash + 1)));
+            }
+            return fixed(Integer.parseInt(text));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a distribution: " + text + ", use 50, 10-200 or exp:100");
+        }
+    }
+
+    public int sample(Random random) {
+        switch (kind) {
+            case UNIFORM:
+                return low + random.nextInt(high - low + 1);
+            case EXPONENTIAL:
+                return (int) Math.min(Integer.MAX_VALUE, Math.round(-mean * Math.log(1 - random.nextDouble())));
+            default:
+                return low;
+        }
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    @Override
+    public String toString() {
+        switch (kind) {
+            case UNIFORM:
+                return low + "-" + high;
+            case EXPONENTIAL:
+                return "exp:" + mean;
+            default:
+                return String.valueOf(low);
+        }
+    }
+}
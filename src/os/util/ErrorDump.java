@@ -1,23 +1,21 @@
 package os.util;
 
+import vm.VmInstance;
+
 import java.util.ArrayList;
 import java.util.List;
 
 public class ErrorDump {
-    private static ErrorDump instance;
-
-    VerboseModeLogger logger = VerboseModeLogger.getInstance();
+    private final VerboseModeLogger logger;
 
     private final List<String> logs = new ArrayList<>();
 
-    private ErrorDump() {
+    public ErrorDump(VerboseModeLogger logger) {
+        this.logger = logger;
     }
 
     public static ErrorDump getInstance() {
-        if(instance == null) {
-            instance = new ErrorDump();
-        }
-        return instance;
+        return VmInstance.current().getErrorDump();
     }
 
    public void logError(String error) {
@@ -0,0 +1,162 @@
+package os.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Program images by file, so the same .osx (or .asm, assembled) isn't read off disk again for every process
+ * started from it. An image is only checked once, when it's read, and is kept until the file's modified time or
+ * size changes. The images are handed out as is, nothing that gets one may write to it.
+ * Files are the same for every machine, so one cache is shared by every VmInstance in the JVM, a parallel sweep
+ * included. The least recently used images are dropped once the images take up more than the capacity.
+ */
+public class ImageCache {
+    public static final long DEFAULT_CAPACITY = 64L * 1024 * 1024;
+    private static final int HEADER_SIZE = 12;
+
+    private static final ImageCache shared = new ImageCache(DEFAULT_CAPACITY);
+
+    //access ordered, so the eldest entry is the least recently used
+    private final LinkedHashMap<Path, Entry> images = new LinkedHashMap<>(16, 0.75f, true);
+    private long capacity;
+    private long bytes = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    //misses where the file was cached but had changed since
+    private long reloads = 0;
+    private long evictions = 0;
+
+    public ImageCache(long capacity) {
+        setCapacity(capacity);
+    }
+
+    public static ImageCache getShared() {
+        return shared;
+    }
+
+    /**
+     * @return the image of the file, an .asm file comes back assembled
+     * @throws IllegalArgumentException if the header doesn't fit the file or the assembly has an error
+     */
+    public byte[] get(Path file) throws IOException {
+        Path key = file.toAbsolutePath().normalize();
+        BasicFileAttributes attributes = Files.readAttributes(key, BasicFileAttributes.class);
+
+        synchronized (this) {
+            Entry entry = images.get(key);
+            if (entry != null && entry.isOf(attributes)) {
+                hits++;
+                return entry.image;
+            }
+            misses++;
+            if (entry != null) {
+                reloads++;
+                remove(key);
+            }
+        }
+
+        //read outside the lock so other machines can keep loading, two reading the same file at once is harmless
+        byte[] image = read(key);
+        synchronized (this) {
+            if (image.length <= capacity && !images.containsKey(key)) {
+                images.put(key, new Entry(image, attributes));
+                bytes += image.length;
+                evict();
+            }
+        }
+        return image;
+    }
+
+    private static byte[] read(Path file) throws IOException {
+        if (file.toString().toLowerCase(Locale.ROOT).endsWith(Assembler.SOURCE_EXTENSION)) {
+            return Assembler.assemble(file, 0);
+        }
+
+        byte[] image = Files.readAllBytes(file);
+        if (image.length < HEADER_SIZE) {
+            throw new IllegalArgumentException(file + ": Program size is less than 12 bytes");
+        }
+        int codeSize = ByteBuffer.wrap(image).order(ByteOrder.LITTLE_ENDIAN).getInt(0);
+        if (codeSize < 0 || codeSize > image.length - HEADER_SIZE) {
+            throw new IllegalArgumentException(file + ": header says " + codeSize + " bytes of code but the file has "
+                    + (image.length - HEADER_SIZE));
+        }
+        return image;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Path, Entry>> eldest = images.entrySet().iterator();
+        while (bytes > capacity && eldest.hasNext()) {
+            bytes -= eldest.next().getValue().image.length;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    private void remove(Path key) {
+        Entry entry = images.remove(key);
+        if (entry != null) {
+            bytes -= entry.image.length;
+        }
+    }
+
+    /**
+     * @param capacity the most bytes of images kept, anything bigger on its own isn't cached at all
+     */
+    public synchronized void setCapacity(long capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity can't be negative");
+        }
+        this.capacity = capacity;
+        evict();
+    }
+
+    /**
+     * Drops every image, the counts are kept
+     */
+    public synchronized void clear() {
+        images.clear();
+        bytes = 0;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long lookups = hits + misses;
+        return String.format("%,d images in %,d of %,d bytes, %,d hits %,d misses (%.2f%% hit rate), %,d reloaded after a change, %,d evicted",
+                images.size(), bytes, capacity, hits, misses, lookups > 0 ? hits * 100.0 / lookups : 0, reloads, evictions);
+    }
+
+    private static class Entry {
+        private final byte[] image;
+        private final FileTime modified;
+        private final long size;
+
+        Entry(byte[] image, BasicFileAttributes attributes) {
+            this.image = image;
+            this.modified = attributes.lastModifiedTime();
+            this.size = attributes.size();
+        }
+
+        boolean isOf(BasicFileAttributes attributes) {
+            return modified.equals(attributes.lastModifiedTime()) && size == attributes.size();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package os.util;
+
+import java.util.Arrays;
+
+/**
+ * Counts values in buckets that get wider the bigger the values get, like HdrHistogram.
+ * Values below 128 get a bucket each, above that every power of two is split into 64 buckets,
+ * so any value is off by less than 1/64 (about 1.6%) and a percentile costs one walk over at most
+ * a couple of thousand buckets no matter how many values were recorded.
+ * Two histograms can be merged by adding up their buckets, so results from separate runs can be
+ * combined without keeping the values around.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    public static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    //grows up to the bucket of the biggest value seen
+    private long[] counts = new long[SUB_BUCKETS];
+    private long count = 0;
+    private long sum = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+
+    /**
+     * @param value anything below 0 is counted as 0
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        int bucket = bucketOf(value);
+        if (bucket >= counts.length) {
+            counts = Arrays.copyOf(counts, bucket + 1);
+        }
+        counts[bucket]++;
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    public void merge(LatencyHistogram other) {
+        if (other.counts.length > counts.length) {
+            counts = Arrays.copyOf(counts, other.counts.length);
+        }
+        for (int bucket = 0; bucket < other.counts.length; bucket++) {
+            counts[bucket] += other.counts[bucket];
+        }
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        //shift the value down until it's between 64 and 127, every shift is another 64 buckets
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return shift * HALF_SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * @return the biggest value that lands in the bucket
+     */
+    private static long highestValueIn(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / HALF_SUB_BUCKETS - 1;
+        long subBucket = bucket % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the value that percentile of the recorded values are at or below, never more than the max
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            seen += counts[bucket];
+            if (seen >= rank) {
+                return Math.min(highestValueIn(bucket), max);
+            }
+        }
+        return max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * @return p50, p90, p99, p99.9 and max on one line
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (double percentile : PERCENTILES) {
+            String label = percentile == Math.rint(percentile) ? String.valueOf((int) percentile) : String.valueOf(percentile);
+            sb.append("p").append(label).append(" ").append(getValueAtPercentile(percentile)).append(", ");
+        }
+        return sb.append("max ").append(max).toString();
+    }
+}
@@ -0,0 +1,52 @@
+package os.util;
+
+/**
+ * Waiting, turnaround and response time histograms for a group of processes
+ */
+public class LatencyMetrics {
+    private final LatencyHistogram waitingTime = new LatencyHistogram();
+    private final LatencyHistogram turnAroundTime = new LatencyHistogram();
+    private final LatencyHistogram responseTime = new LatencyHistogram();
+
+    public void record(int waitingTime, int turnAroundTime, int responseTime) {
+        this.waitingTime.record(waitingTime);
+        this.turnAroundTime.record(turnAroundTime);
+        this.responseTime.record(responseTime);
+    }
+
+    public void merge(LatencyMetrics other) {
+        waitingTime.merge(other.waitingTime);
+        turnAroundTime.merge(other.turnAroundTime);
+        responseTime.merge(other.responseTime);
+    }
+
+    public long getCount() {
+        return turnAroundTime.getCount();
+    }
+
+    public LatencyHistogram getWaitingTime() {
+        return waitingTime;
+    }
+
+    public LatencyHistogram getTurnAroundTime() {
+        return turnAroundTime;
+    }
+
+    public LatencyHistogram getResponseTime() {
+        return responseTime;
+    }
+
+    /**
+     * @param prefix goes in front of every line, e.g. the queue the processes were in
+     */
+    public String toString(String prefix) {
+        return prefix + "Waiting Time: " + waitingTime + "\n"
+                + prefix + "Turnaround Time: " + turnAroundTime + "\n"
+                + prefix + "Response Time: " + responseTime;
+    }
+
+    @Override
+    public String toString() {
+        return toString("");
+    }
+}
@@ -0,0 +1,12 @@
+package os.util;
+
+/**
+ * How much a subsystem logs. Each level includes everything from the levels before it.
+ */
+public enum LogLevel {
+    OFF,
+    //state changes: processes moving between queues, loads, system calls
+    INFO,
+    //per instruction and per tick detail
+    DEBUG
+}
@@ -0,0 +1,12 @@
+package os.util;
+
+/**
+ * The parts of the system that can have their logging turned up or down on their own
+ */
+public enum LogSubsystem {
+    SYSTEM,
+    CPU,
+    MEMORY,
+    SCHEDULER,
+    IO
+}
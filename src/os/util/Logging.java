@@ -1,8 +1,59 @@
 package os.util;
 
+import java.util.function.Supplier;
+
+/**
+ * Logging for anything in the system. Messages are tagged with the subsystem they come from and how detailed they are.
+ * On hot paths use the supplier or the {} pattern versions so nothing gets built unless it will actually be printed.
+ * Everything ends up in VerboseModeLogger.print, the only place that writes the messages out.
+ */
 public interface Logging {
+    /**
+     * The logger for the machine this object belongs to. Classes on the hot path override this to return a cached
+     * logger so they don't have to look the machine up on every call.
+     */
+    default VerboseModeLogger logger() {
+        return VerboseModeLogger.getInstance();
+    }
+
     default void log(String message){
-        VerboseModeLogger.getInstance().print(message);
+        logger().print(message);
+    }
+
+    default void log(LogSubsystem subsystem, LogLevel level, String message) {
+        logger().print(subsystem, level, message);
+    }
+
+    default void log(LogSubsystem subsystem, LogLevel level, Supplier<String> message) {
+        VerboseModeLogger logger = logger();
+        if (logger.isEnabled(subsystem, level)) {
+            logger.print(subsystem, level, message.get());
+        }
+    }
+
+    default void log(LogSubsystem subsystem, LogLevel level, String pattern, int arg) {
+        VerboseModeLogger logger = logger();
+        if (logger.isEnabled(subsystem, level)) {
+            logger.print(subsystem, level, VerboseModeLogger.format(pattern, arg));
+        }
+    }
+
+    default void log(LogSubsystem subsystem, LogLevel level, String pattern, int arg1, int arg2) {
+        VerboseModeLogger logger = logger();
+        if (logger.isEnabled(subsystem, level)) {
+            logger.print(subsystem, level, VerboseModeLogger.format(pattern, arg1, arg2));
+        }
+    }
+
+    default void log(LogSubsystem subsystem, LogLevel level, String pattern, int arg1, int arg2, int arg3) {
+        VerboseModeLogger logger = logger();
+        if (logger.isEnabled(subsystem, level)) {
+            logger.print(subsystem, level, VerboseModeLogger.format(pattern, arg1, arg2, arg3));
+        }
+    }
+
+    default boolean isLogging(LogSubsystem subsystem, LogLevel level) {
+        return logger().isEnabled(subsystem, level);
     }
 
     default void logError(String message){
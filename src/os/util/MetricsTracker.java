@@ -1,20 +1,42 @@
 package os.util;
 
 import os.ProcessControlBlock;
+import os.queues.QueueId;
 
-import java.io.FileWriter;
-import java.io.IOException;
 import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 
 public class MetricsTracker implements Logging {
     private double throughput = 0.0;
     private double waitingTime = 0.0;
     private double turnAroundTime = 0.0;
-    private int responseTime = 0;
+    private double responseTime = 0;
     private int quantum1;
     private int quantum2;
     private String filename;
 
+    //system wide, over the whole run
+    private int elapsedTime;
+    private double systemThroughput;
+    private final CoreMetrics[] coreMetrics;
+
+    //recorded as each process terminates, for the whole run and split by the ready queue the process was last in
+    private final LatencyMetrics latency = new LatencyMetrics();
+    private final Map<QueueId, LatencyMetrics> latencyByQueue = new EnumMap<>(QueueId.class);
+
+    public MetricsTracker() {
+        this(1);
+    }
+
+    public MetricsTracker(int cores) {
+        coreMetrics = new CoreMetrics[cores];
+        for (int core = 0; core < cores; core++) {
+            coreMetrics[core] = new CoreMetrics(core);
+        }
+    }
+
     public void calculateMetrics(Collection<ProcessControlBlock> processes, int[] quantum, String filename) {
         this.quantum1 = quantum[0];
         this.quantum2 = quantum[1];
@@ -32,32 +54,62 @@ public class MetricsTracker implements Logging {
         waitingTime /= numProcesses;
         turnAroundTime /= numProcesses;
         responseTime /= numProcesses;
+    }
+
+    public void processCompleted(ProcessControlBlock pcb) {
+        CoreMetrics core = coreMetrics[pcb.getCore()];
+        core.processesCompleted++;
+        core.totalTurnAroundTime += pcb.getTurnAroundTime();
 
-        printMetrics();
+        //a vfork child runs inside its parent's time, same as in the averages it's left out
+        if (pcb.getParent() != null) {
+            return;
+        }
+        latency.record(pcb.getWaitingTime(), pcb.getTurnAroundTime(), pcb.getResponseTime());
+        if (pcb.getLastReadyQueue() != null) {
+            latencyByQueue.computeIfAbsent(pcb.getLastReadyQueue(), queue -> new LatencyMetrics())
+                    .record(pcb.getWaitingTime(), pcb.getTurnAroundTime(), pcb.getResponseTime());
+        }
     }
 
-    private void printMetrics() {
-        log("--------- System Metrics ---------");
-        log("Average Throughput: " + throughput);
-        log("Average Waiting Time: " + waitingTime);
-        log("Average Turnaround Time: " + turnAroundTime);
-        log("Average Response Time: " + responseTime);
-        log("Quantum 1: " + quantum1);
-        log("Quantum 2: " + quantum2);
+    public void processStolen(int core) {
+        coreMetrics[core].processesStolen++;
+    }
 
+    /**
+     * @param busyTicks   the ticks each core spent running a process during the run
+     * @param elapsedTime how long the run took on the clock
+     */
+    public void calculateCoreMetrics(long[] busyTicks, int elapsedTime) {
+        this.elapsedTime = elapsedTime;
+
+        int completed = 0;
+        for (CoreMetrics core : coreMetrics) {
+            core.busyTicks = busyTicks[core.core];
+            core.throughput = elapsedTime > 0 ? (double) core.processesCompleted / elapsedTime : 0;
+            core.utilization = elapsedTime > 0 ? (double) core.busyTicks / elapsedTime : 0;
+            completed += core.processesCompleted;
+        }
 
-        try (FileWriter writer = new FileWriter("metrics_output.txt", true)) {
-            writer.write("--------- System Metrics ---------\n");
-            writer.write("file: " + filename + "\n");
-            writer.write("Average Throughput: " + throughput + "\n");
-            writer.write("Average Waiting Time: " + waitingTime + "\n");
-            writer.write("Average Turnaround Time: " + turnAroundTime + "\n");
-            writer.write("Average Response Time: " + responseTime + "\n");
-            writer.write("Quantum 1: " + quantum1 + "\n");
-            writer.write("Quantum 2: " + quantum2 + "\n");
+        systemThroughput = elapsedTime > 0 ? (double) completed / elapsedTime : 0;
+    }
 
-        } catch (IOException e) {
-            log("An error occurred while writing metrics to file: " + e.getMessage());
+    public void printMetrics() {
+        log(LogSubsystem.SYSTEM, LogLevel.INFO, "--------- System Metrics ---------");
+        log(LogSubsystem.SYSTEM, LogLevel.INFO, () -> "File: " + filename);
+        log(LogSubsystem.SYSTEM, LogLevel.INFO, () -> "Average Throughput: " + throughput);
+        log(LogSubsystem.SYSTEM, LogLevel.INFO, () -> "Average Waiting Time: " + waitingTime);
+        log(LogSubsystem.SYSTEM, LogLevel.INFO, () -> "Average Turnaround Time: " + turnAroundTime);
+        log(LogSubsystem.SYSTEM, LogLevel.INFO, () -> "Average Response Time: " + responseTime);
+        log(LogSubsystem.SYSTEM, LogLevel.INFO, latency::toString);
+        for (Map.Entry<QueueId, LatencyMetrics> queue : latencyByQueue.entrySet()) {
+            log(LogSubsystem.SYSTEM, LogLevel.INFO, () -> queue.getValue().toString(queue.getKey() + " "));
+        }
+        log(LogSubsystem.SYSTEM, LogLevel.INFO, "Quantum 1: {}", quantum1);
+        log(LogSubsystem.SYSTEM, LogLevel.INFO, "Quantum 2: {}", quantum2);
+        log(LogSubsystem.SYSTEM, LogLevel.INFO, () -> "System Throughput: " + systemThroughput + " processes/tick over " + elapsedTime + " ticks");
+        for (CoreMetrics core : coreMetrics) {
+            log(LogSubsystem.SYSTEM, LogLevel.INFO, core::toString);
         }
     }
 
@@ -77,15 +129,96 @@ public class MetricsTracker implements Logging {
         return turnAroundTime;
     }
 
-    public int getResponseTime() {
+    public double getResponseTime() {
         return responseTime;
     }
 
-    public void setResponseTime(int responseTime) {
+    public void setResponseTime(double responseTime) {
         this.responseTime = responseTime;
     }
 
     public int getQuantum1() {
         return quantum1;
     }
+
+    public int getElapsedTime() {
+        return elapsedTime;
+    }
+
+    public double getSystemThroughput() {
+        return systemThroughput;
+    }
+
+    /**
+     * @return percentiles over every process of the run, merge these to combine runs
+     */
+    public LatencyMetrics getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return percentiles split by the ready queue (or mfq level) each process was last in
+     */
+    public Map<QueueId, LatencyMetrics> getLatencyByQueue() {
+        return latencyByQueue;
+    }
+
+    public List<CoreMetrics> getCoreMetrics() {
+        return List.of(coreMetrics);
+    }
+
+    /**
+     * What a single core got done during a run
+     */
+    public static class CoreMetrics {
+        private final int core;
+        private int processesCompleted;
+        private int processesStolen;
+        private long totalTurnAroundTime;
+        private long busyTicks;
+        private double throughput;
+        private double utilization;
+
+        CoreMetrics(int core) {
+            this.core = core;
+        }
+
+        public int getCore() {
+            return core;
+        }
+
+        public int getProcessesCompleted() {
+            return processesCompleted;
+        }
+
+        public int getProcessesStolen() {
+            return processesStolen;
+        }
+
+        public long getBusyTicks() {
+            return busyTicks;
+        }
+
+        public double getThroughput() {
+            return throughput;
+        }
+
+        public double getUtilization() {
+            return utilization;
+        }
+
+        /**
+         * @return the average turnaround of the processes that finished on this core
+         */
+        public double getTurnAroundTime() {
+            return processesCompleted > 0 ? (double) totalTurnAroundTime / processesCompleted : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Core " + core + ": completed " + processesCompleted + ", stolen " + processesStolen
+                    + ", throughput " + throughput + ", utilization " + utilization
+                    + ", average turnaround " + getTurnAroundTime();
+        }
+    }
 }
@@ -0,0 +1,82 @@
+package os.util;
+
+import os.queues.QueueId;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Stores a process's bursts as parallel primitive arrays instead of an object per burst,
+ * which is about 10 bytes a burst instead of 50 once a process has been through thousands of them.
+ * Bursts are only added once they've ended, so nothing in here changes afterwards except the finished flag.
+ */
+public class ProcessTimeline implements Timeline {
+    private static final QueueId[] QUEUE_IDS = QueueId.values();
+    private static final int INITIAL_CAPACITY = 8;
+    private static final byte FINISHED = 1;
+
+    private int[] starts = new int[INITIAL_CAPACITY];
+    private int[] ends = new int[INITIAL_CAPACITY];
+    private byte[] queueIds = new byte[INITIAL_CAPACITY];
+    private byte[] flags = new byte[INITIAL_CAPACITY];
+    private int size = 0;
+
+    public void add(QueueId queueId, int start, int end) {
+        if (size == starts.length) {
+            resize(Math.max(INITIAL_CAPACITY, size + (size >> 1)));
+        }
+        starts[size] = start;
+        ends[size] = end;
+        queueIds[size] = (byte) queueId.ordinal();
+        size++;
+    }
+
+    public void setBurstFinished(int burst) {
+        flags[checkIndex(burst)] |= FINISHED;
+    }
+
+    /**
+     * Gives back the room left over from growing, for when the process is done
+     */
+    public void trimToSize() {
+        if (size < starts.length) {
+            resize(size);
+        }
+    }
+
+    private void resize(int capacity) {
+        starts = Arrays.copyOf(starts, capacity);
+        ends = Arrays.copyOf(ends, capacity);
+        queueIds = Arrays.copyOf(queueIds, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+    }
+
+    private int checkIndex(int burst) {
+        return Objects.checkIndex(burst, size);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int getStart(int burst) {
+        return starts[checkIndex(burst)];
+    }
+
+    @Override
+    public int getEnd(int burst) {
+        return ends[checkIndex(burst)];
+    }
+
+    @Override
+    public QueueId getQueueId(int burst) {
+        return QUEUE_IDS[queueIds[checkIndex(burst)]];
+    }
+
+    @Override
+    public boolean isBurstFinished(int burst) {
+        return (flags[checkIndex(burst)] & FINISHED) != 0;
+    }
+}
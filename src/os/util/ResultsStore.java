@@ -0,0 +1,203 @@
+package os.util;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Results of scheduling runs as a CSV file, one row per run, keyed by the workload, the policy, its quantums and the cores.
+ * The file stays open behind one buffered writer for as long as the store is, rows only go to disk when flushed.
+ * The keys already in the file are read when it's opened, so a sweep can skip everything it already has and pick up
+ * where it left off.
+ * The workload hash covers the execute command and the bytes of every program in it, so rebuilding a program
+ * gives it new rows instead of mixing old and new results.
+ */
+public class ResultsStore implements Closeable, Logging {
+    public static final String DEFAULT_FILE = "sweep_results.csv";
+    private static final String[] COLUMNS = {
+            "workload_hash", "policy", "quantum1", "quantum2", "cores", "workload", "processes",
+            "throughput", "avg_waiting", "avg_turnaround", "avg_response",
+            "p50_waiting", "p90_waiting", "p99_waiting", "max_waiting",
+            "p50_turnaround", "p90_turnaround", "p99_turnaround", "max_turnaround",
+            "p50_response", "p90_response", "p99_response", "max_response",
+            "elapsed", "system_throughput"};
+    //the columns that make up the key, the first five
+    private static final int KEY_COLUMNS = 5;
+
+    private final Path file;
+    private final Set<String> keys = new HashSet<>();
+    private final BufferedWriter writer;
+
+    public ResultsStore(Path file) throws IOException {
+        this.file = file;
+        boolean exists = Files.exists(file) && Files.size(file) > 0;
+        if (exists) {
+            for (String[] row : readRows(file)) {
+                keys.add(String.join(",", Arrays.copyOf(row, KEY_COLUMNS)));
+            }
+        }
+
+        writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        if (!exists) {
+            writer.write(String.join(",", COLUMNS));
+            writer.newLine();
+        }
+        log(LogSubsystem.SYSTEM, LogLevel.INFO, () -> "Results store " + file + " has " + keys.size() + " runs");
+    }
+
+    public static String key(String workloadHash, String policy, int quantum1, int quantum2, int cores) {
+        return workloadHash + "," + policy + "," + quantum1 + "," + quantum2 + "," + cores;
+    }
+
+    /**
+     * @param workload the execute command, e.g. "execute files/cases/s-cpu-1.osx 1"
+     */
+    public static String workloadHash(String workload) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(workload.getBytes(StandardCharsets.UTF_8));
+            String[] parts = workload.split(" ");
+            //the programs are every other argument after the command
+            for (int i = 1; i < parts.length; i += 2) {
+                Path program = Paths.get(parts[i]);
+                if (Files.isReadable(program)) {
+                    digest.update(Files.readAllBytes(program));
+                }
+            }
+            return HexFormat.of().formatHex(digest.digest(), 0, 8);
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new IllegalStateException("Can't hash workload " + workload, e);
+        }
+    }
+
+    public boolean contains(String key) {
+        return keys.contains(key);
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Adds a row for the run to the buffer, flush to write it out
+     */
+    public void append(String workload, String policy, int cores, MetricsTracker metrics) throws IOException {
+        String key = key(workloadHash(workload), policy, metrics.getQuantum1(), metrics.getQuantum2(), cores);
+        LatencyMetrics latency = metrics.getLatency();
+
+        List<String> row = new ArrayList<>();
+        row.add(key);
+        //the workload is the only free text, keep commas out of it so the csv stays simple
+        row.add(workload.replace(',', ';'));
+        row.add(String.valueOf(latency.getCount()));
+        row.add(String.valueOf(metrics.getThroughput()));
+        row.add(String.valueOf(metrics.getWaitingTime()));
+        row.add(String.valueOf(metrics.getTurnAroundTime()));
+        row.add(String.valueOf(metrics.getResponseTime()));
+        addPercentiles(row, latency.getWaitingTime());
+        addPercentiles(row, latency.getTurnAroundTime());
+        addPercentiles(row, latency.getResponseTime());
+        row.add(String.valueOf(metrics.getElapsedTime()));
+        row.add(String.valueOf(metrics.getSystemThroughput()));
+
+        writer.write(String.join(",", row));
+        writer.newLine();
+        keys.add(key);
+    }
+
+    private static void addPercentiles(List<String> row, LatencyHistogram histogram) {
+        row.add(String.valueOf(histogram.getValueAtPercentile(50)));
+        row.add(String.valueOf(histogram.getValueAtPercentile(90)));
+        row.add(String.valueOf(histogram.getValueAtPercentile(99)));
+        row.add(String.valueOf(histogram.getMax()));
+    }
+
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    private static List<String[]> readRows(Path file) throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        for (int i = 1; i < lines.size(); i++) {
+            if (!lines.get(i).isBlank()) {
+                rows.add(lines.get(i).split(",", -1));
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Averages a column over every workload for each quantum1 and quantum2 pair of a policy.
+     *
+     * @return the table as csv, quantum1 down the side and quantum2 across the top, empty where there was no run
+     */
+    public static String surface(Path file, String column, String policy) throws IOException {
+        int index = Arrays.asList(COLUMNS).indexOf(column);
+        if (index < KEY_COLUMNS + 1) {
+            throw new IllegalArgumentException("Not a result column: " + column);
+        }
+
+        //quantum1 -> quantum2 -> sum and count
+        TreeMap<Integer, TreeMap<Integer, double[]>> cells = new TreeMap<>();
+        TreeSet<Integer> quantum2s = new TreeSet<>();
+        for (String[] row : readRows(file)) {
+            if (row.length != COLUMNS.length || !row[1].equals(policy)) {
+                continue;
+            }
+            int quantum1 = Integer.parseInt(row[2]);
+            int quantum2 = Integer.parseInt(row[3]);
+            quantum2s.add(quantum2);
+            double[] cell = cells.computeIfAbsent(quantum1, q -> new TreeMap<>()).computeIfAbsent(quantum2, q -> new double[2]);
+            cell[0] += Double.parseDouble(row[index]);
+            cell[1]++;
+        }
+
+        StringBuilder sb = new StringBuilder("q1\\q2");
+        for (int quantum2 : quantum2s) {
+            sb.append(",").append(quantum2);
+        }
+        sb.append("\n");
+        for (var quantum1 : cells.entrySet()) {
+            sb.append(quantum1.getKey());
+            for (int quantum2 : quantum2s) {
+                double[] cell = quantum1.getValue().get(quantum2);
+                sb.append(",");
+                if (cell != null) {
+                    sb.append(String.format(Locale.ROOT, "%.3f", cell[0] / cell[1]));
+                }
+            }
+            sb.append("\n");
+        }
+        return sb.toString();
+    }
+
+    public static List<String> getColumns() {
+        return List.of(COLUMNS).subList(KEY_COLUMNS + 1, COLUMNS.length);
+    }
+}
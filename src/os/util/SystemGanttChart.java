@@ -1,83 +1,37 @@
 package os.util;
 
 import os.ProcessControlBlock;
+import os.queues.QueueId;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.util.*;
 
+/**
+ * Draws every process of a run on one chart, a row per queue and a column per stretch of time.
+ * Ticks in a row that look exactly the same are merged into one span column labelled first-last tick,
+ * so the chart grows with the number of times something changed and not with how long the run was.
+ * Nothing is built per tick: the bursts are turned into sorted start/end events, and every row is
+ * written straight to the file by sweeping over them, so memory stays at one event per burst.
+ */
 public class SystemGanttChart implements Logging {
-    public static void makeChart(List<ProcessControlBlock> currentProcesses) {
-        StringBuilder sb = new StringBuilder("System-Wide Gantt Chart:\n");
-
-        // Use a TreeMap to maintain execution order based on time
-        TreeMap<Integer, String[]> systemTimeline = new TreeMap<>();
-
-        // Define column width for alignment
-        final int COLUMN_WIDTH = 8; // Adjust this for better spacing
+    private static final String[] QUEUE_NAMES = {"Job:     |", "Running: |", "IO:      |", "Ready:   |", "MFQ 1:   |", "MFQ 2:   |",
+            "MFQ 3:   |", "MFQ 4:   |", "MFQ 5:   |", "MFQ 6:   |", "MFQ 7:   |", "MFQ 8:   |"};
+    private static final String HEADER = "Time:    |";
+    private static final int COLUMN_WIDTH = 8;
+    //rows below the third mfq level only get printed if something was in them
+    private static final int ALWAYS_SHOWN_ROWS = 7;
 
-        // Initialize timeline with empty states
-        for (ProcessControlBlock pcb : currentProcesses) {
-            for (ProcessExecutionBurst burst : pcb.getTimeLine()) {
-                for (int t = burst.getStart(); t < burst.getEnd(); t++) {
-                    if (!systemTimeline.containsKey(t)) {
-                        systemTimeline.put(t, new String[]{" ", " ", " ", " ", " ", " ", " "});
-                    }
-                }
-            }
-        }
-
-        // Populate the system-wide timeline with **multiple PIDs** per queue
-        for (ProcessControlBlock pcb : currentProcesses) {
-            String pidLabel = String.format("%2d", pcb.getPid()); // Ensure consistent spacing
-            for (ProcessExecutionBurst burst : pcb.getTimeLine()) {
-                for (int t = burst.getStart(); t < burst.getEnd(); t++) {
-                    String[] queues = systemTimeline.get(t);
-                    switch (burst.getQueueId()) {
-                        case JOB_QUEUE:
-                            queues[0] = appendPid(queues[0], pidLabel);
-                            break;
-                        case RUNNING_QUEUE:
-                            queues[1] = appendPid(queues[1], pidLabel);
-                            break;
-                        case IO_QUEUE:
-                            queues[2] = appendPid(queues[2], pidLabel);
-                            break;
-                        case RR_QUEUE, FCFS_QUEUE:
-                            queues[3] = appendPid(queues[3], pidLabel);
-                            break;
-                        case MFQ_QUEUE_1:
-                            queues[4] = appendPid(queues[4], pidLabel);
-                            break;
-                        case MFQ_QUEUE_2:
-                            queues[5] = appendPid(queues[5], pidLabel);
-                            break;
-                        case MFQ_QUEUE_3:
-                            queues[6] = appendPid(queues[6], pidLabel);
-                            break;
-                    }
-                }
-            }
-        }
-
-        // Print header with separators
-        sb.append("Time:    |");
-        for (int time : systemTimeline.keySet()) {
-            sb.append(String.format("%" + COLUMN_WIDTH + "d|", time));
-        }
-        sb.append("\n");
-
-        // Print queue states with **comma-separated PIDs** and separators
-        String[] queueNames = {"Job:     |", "Running: |", "IO:      |", "Ready:   |", "MFQ 1:   |", "MFQ 2:   |", "MFQ 3:   |"};
-        for (int i = 0; i < queueNames.length; i++) {
-            sb.append(queueNames[i]);
-            for (int time : systemTimeline.keySet()) {
-                sb.append(String.format("%" + COLUMN_WIDTH + "s|", systemTimeline.get(time)[i]));
-            }
-            sb.append("\n");
-        }
+    //an event is packed into a long so sorting them is just sorting numbers: time, process, row, start or end
+    private static final int PROCESS_SHIFT = 5;
+    private static final int ROW_SHIFT = 1;
+    private static final long ROW_MASK = 0xF;
+    private static final long PROCESS_MASK = (1L << (32 - PROCESS_SHIFT)) - 1;
 
+    public static void makeChart(List<ProcessControlBlock> currentProcesses) {
         // ✅ Ensure the file exists before writing
         File file = new File("system_gantt_chart.txt");
         try {
@@ -92,8 +46,8 @@ public class SystemGanttChart implements Logging {
         }
 
         // ✅ Write to file
-        try (FileWriter writer = new FileWriter(file)) {
-            writer.write(sb.toString());
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            writeChart(currentProcesses, writer);
             System.out.println("✅ System Gantt Chart saved to system_gantt_chart.txt");
         } catch (IOException e) {
             System.err.println("❌ Error writing System Gantt Chart to file: " + e.getMessage());
@@ -101,13 +55,195 @@ public class SystemGanttChart implements Logging {
     }
 
     /**
-     * Appends a process PID to an existing queue entry.
-     * Ensures multiple processes at the same time are shown properly.
+     * Streams the chart to the writer, a full pass over the events for the header and for every row
+     */
+    public static void writeChart(List<ProcessControlBlock> processes, Writer writer) throws IOException {
+        long[] events = events(processes);
+        String[] pidLabels = new String[processes.size()];
+        int deepestRow = ALWAYS_SHOWN_ROWS - 1;
+        for (int i = 0; i < processes.size(); i++) {
+            pidLabels[i] = String.format("%2d", processes.get(i).getPid()); // Ensure consistent spacing
+        }
+        for (long event : events) {
+            deepestRow = Math.max(deepestRow, row(event));
+        }
+
+        writer.write("System-Wide Gantt Chart:\n");
+        writer.write(HEADER);
+        sweep(events, pidLabels, (start, end, cells) -> {
+            String time = end - start == 1 ? String.valueOf(start) : start + "-" + (end - 1);
+            writeCell(writer, time);
+        });
+        writer.write("\n");
+
+        for (int row = 0; row <= deepestRow; row++) {
+            int current = row;
+            writer.write(QUEUE_NAMES[row]);
+            sweep(events, pidLabels, (start, end, cells) -> writeCell(writer, cells[current]));
+            writer.write("\n");
+        }
+    }
+
+    private static void writeCell(Writer writer, String cell) throws IOException {
+        for (int i = cell.length(); i < COLUMN_WIDTH; i++) {
+            writer.write(' ');
+        }
+        writer.write(cell);
+        writer.write('|');
+    }
+
+    /**
+     * Every burst becomes a start and an end event, sorted by time
      */
-    private static String appendPid(String existing, String newPid) {
-        if (existing.trim().isEmpty()) {
-            return newPid;
+    private static long[] events(List<ProcessControlBlock> processes) {
+        int count = 0;
+        for (ProcessControlBlock pcb : processes) {
+            count += pcb.getTimeLine().size() * 2;
         }
-        return existing + "," + newPid;  // Comma-separated list of PIDs
+
+        long[] events = new long[count];
+        int size = 0;
+        for (int process = 0; process < processes.size(); process++) {
+            Timeline timeLine = processes.get(process).getTimeLine();
+            for (int burst = 0; burst < timeLine.size(); burst++) {
+                int row = row(timeLine.getQueueId(burst));
+                if (row < 0 || timeLine.getEnd(burst) <= timeLine.getStart(burst)) {
+                    continue;
+                }
+                events[size++] = event(timeLine.getStart(burst), process, row, true);
+                events[size++] = event(timeLine.getEnd(burst), process, row, false);
+            }
+        }
+
+        events = Arrays.copyOf(events, size);
+        Arrays.sort(events);
+        return events;
+    }
+
+    private static long event(int time, int process, int row, boolean start) {
+        return (long) time << 32 | (long) process << PROCESS_SHIFT | (long) row << ROW_SHIFT | (start ? 1 : 0);
+    }
+
+    private static int time(long event) {
+        return (int) (event >>> 32);
+    }
+
+    private static int process(long event) {
+        return (int) (event >>> PROCESS_SHIFT & PROCESS_MASK);
+    }
+
+    private static int row(long event) {
+        return (int) (event >>> ROW_SHIFT & ROW_MASK);
+    }
+
+    private static boolean isStart(long event) {
+        return (event & 1) == 1;
+    }
+
+    /**
+     * Walks the events in time order and hands over every span of identical columns.
+     * A span also ends where no process is around at all, those ticks don't get a column.
+     */
+    private static void sweep(long[] events, String[] pidLabels, SpanConsumer consumer) throws IOException {
+        //the processes in each row right now, in the same order the processes were given
+        List<TreeSet<Integer>> rows = new ArrayList<>();
+        for (int row = 0; row < QUEUE_NAMES.length; row++) {
+            rows.add(new TreeSet<>());
+        }
+        String[] cells = new String[QUEUE_NAMES.length];
+        Arrays.fill(cells, " ");
+        int active = 0;
+        int spanStart = 0;
+
+        int i = 0;
+        while (i < events.length) {
+            int time = time(events[i]);
+            boolean[] touched = new boolean[QUEUE_NAMES.length];
+            int activeBefore = active;
+            for (; i < events.length && time(events[i]) == time; i++) {
+                long event = events[i];
+                int row = row(event);
+                if (isStart(event)) {
+                    rows.get(row).add(process(event));
+                    active++;
+                } else {
+                    rows.get(row).remove(process(event));
+                    active--;
+                }
+                touched[row] = true;
+            }
+
+            String[] next = cells;
+            for (int row = 0; row < touched.length; row++) {
+                if (!touched[row]) {
+                    continue;
+                }
+                String cell = cell(rows.get(row), pidLabels);
+                if (!cell.equals(cells[row])) {
+                    if (next == cells) {
+                        next = cells.clone();
+                    }
+                    next[row] = cell;
+                }
+            }
+
+            boolean changed = next != cells || (activeBefore == 0) != (active == 0);
+            if (!changed) {
+                continue;
+            }
+            if (activeBefore > 0) {
+                consumer.accept(spanStart, time, cells);
+            }
+            cells = next;
+            spanStart = time;
+        }
+    }
+
+    /**
+     * Lists the PIDs in a queue entry, comma separated so multiple processes at the same time are shown properly
+     */
+    private static String cell(TreeSet<Integer> processes, String[] pidLabels) {
+        if (processes.isEmpty()) {
+            return " ";
+        }
+
+        StringJoiner joiner = new StringJoiner(",");
+        for (int process : processes) {
+            joiner.add(pidLabels[process]);
+        }
+        return joiner.toString();
+    }
+
+    /**
+     * @return the row a queue is drawn in, -1 for queues that aren't drawn
+     */
+    private static int row(QueueId queueId) {
+        switch (queueId) {
+            case JOB_QUEUE:
+                return 0;
+            case RUNNING_QUEUE:
+                return 1;
+            case IO_QUEUE:
+                return 2;
+            case RR_QUEUE, FCFS_QUEUE, SJF_QUEUE, SRTF_QUEUE, CFS_QUEUE:
+                return 3;
+            case MFQ_QUEUE_1:
+                return 4;
+            case MFQ_QUEUE_2:
+                return 5;
+            case MFQ_QUEUE_3:
+                return 6;
+            case MFQ_QUEUE_4, MFQ_QUEUE_5, MFQ_QUEUE_6, MFQ_QUEUE_7, MFQ_QUEUE_8:
+                return 7 + queueId.ordinal() - QueueId.MFQ_QUEUE_4.ordinal();
+            default:
+                return -1;
+        }
+    }
+
+    private interface SpanConsumer {
+        /**
+         * @param end first tick after the span
+         */
+        void accept(int start, int end, String[] cells) throws IOException;
     }
 }
@@ -53,16 +53,17 @@ public class SystemGanttChartGui {
 
         // Iterate over each process and create tasks per queue type
         for (ProcessControlBlock pcb : currentProcesses) {
-            for (ProcessExecutionBurst burst : pcb.getTimeLine()) {
-                int start = burst.getStart();
-                int end = burst.getEnd();
+            Timeline timeLine = pcb.getTimeLine();
+            for (int burst = 0; burst < timeLine.size(); burst++) {
+                int start = timeLine.getStart(burst);
+                int end = timeLine.getEnd(burst);
 
                 // Track min/max times
                 minTime = Math.min(minTime, start);
                 maxTime = Math.max(maxTime, end);
 
                 String queueName;
-                switch (burst.getQueueId()) {
+                switch (timeLine.getQueueId(burst)) {
                     case JOB_QUEUE:
                         queueName = "Ready Queue";
                         break;
@@ -0,0 +1,30 @@
+package os.util;
+
+import os.queues.QueueId;
+
+/**
+ * Read only view of the bursts a process went through, oldest first.
+ * A burst is one stretch of time in one queue, from start up to but not including end.
+ */
+public interface Timeline {
+    int size();
+
+    int getStart(int burst);
+
+    int getEnd(int burst);
+
+    QueueId getQueueId(int burst);
+
+    /**
+     * @return true if the burst ran until the process did IO
+     */
+    boolean isBurstFinished(int burst);
+
+    default int getExecutionTime(int burst) {
+        return getEnd(burst) - getStart(burst);
+    }
+
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+}
@@ -0,0 +1,188 @@
+package os.util;
+
+import os.queues.QueueId;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Turns a binary trace from TraceRecorder into Chrome trace event JSON, which Perfetto (ui.perfetto.dev)
+ * and chrome://tracing both open. One tick is shown as one microsecond.
+ * Every core gets a track with a slice per stretch a process ran on it, every process that did IO gets
+ * a track on the IO side, and everything else shows up as an instant event on the track it happened on.
+ * The JSON is streamed out record by record, so it works for traces of any size.
+ * Run with: java -cp out os.util.TraceConverter trace.bin trace.json
+ */
+public class TraceConverter {
+    private static final int CPU_TRACK = 0;
+    private static final int IO_TRACK = 1;
+    private static final int MEMORY_TRACK = 2;
+    private static final QueueId[] QUEUE_IDS = QueueId.values();
+
+    private final Writer writer;
+    private boolean first = true;
+    //process running on each core and when it got there
+    private final Map<Integer, int[]> running = new HashMap<>();
+    //when each process started its IO
+    private final Map<Integer, Integer> inIo = new HashMap<>();
+    private final TreeSet<Integer> cores = new TreeSet<>();
+    private int events = 0;
+
+    private TraceConverter(Writer writer) {
+        this.writer = writer;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("usage: TraceConverter <trace file> <json file>");
+            return;
+        }
+        int events = toChromeJson(Paths.get(args[0]), Paths.get(args[1]));
+        System.out.println("Wrote " + events + " events to " + args[1]);
+    }
+
+    /**
+     * @return how many trace events were written
+     */
+    public static int toChromeJson(Path trace, Path json) throws IOException {
+        try (FileChannel channel = FileChannel.open(trace, StandardOpenOption.READ);
+             BufferedWriter writer = Files.newBufferedWriter(json)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.limit() < TraceRecorder.HEADER_SIZE || buffer.getInt(0) != TraceRecorder.MAGIC) {
+                throw new IOException(trace + " is not a trace file");
+            }
+            if (buffer.getInt(4) != TraceRecorder.VERSION) {
+                throw new IOException("Unsupported trace version " + buffer.getInt(4));
+            }
+
+            int recordSize = buffer.getInt(8);
+            int capacity = buffer.getInt(12);
+            long written = buffer.getLong(TraceRecorder.WRITTEN_OFFSET);
+            //once the ring has wrapped the oldest record is the one after the newest
+            long oldest = Math.max(0, written - capacity);
+
+            TraceConverter converter = new TraceConverter(writer);
+            writer.write("{\"displayTimeUnit\":\"ns\",\"traceEvents\":[\n");
+            converter.metadata(CPU_TRACK, "CPU");
+            converter.metadata(IO_TRACK, "IO");
+            converter.metadata(MEMORY_TRACK, "Memory");
+            for (long record = oldest; record < written; record++) {
+                int position = TraceRecorder.HEADER_SIZE + (int) (record % capacity) * recordSize;
+                converter.convert(buffer.getInt(position), TraceEvent.of(buffer.getShort(position + 4)),
+                        buffer.getShort(position + 6), buffer.getInt(position + 8),
+                        buffer.getInt(position + 12), buffer.getInt(position + 16));
+            }
+            converter.finish();
+            writer.write("\n]}\n");
+            return converter.events;
+        }
+    }
+
+    private void convert(int time, TraceEvent event, int core, int pid, int a, int b) throws IOException {
+        cores.add(core);
+        switch (event) {
+            case DISPATCH:
+                leaveCore(core, time);
+                running.put(core, new int[]{pid, time});
+                break;
+            case SWITCH:
+                leaveCore(core, time);
+                running.put(core, new int[]{a, time});
+                break;
+            case STOP, END:
+                leaveCore(core, time);
+                if (event == TraceEvent.END) {
+                    instant("END", CPU_TRACK, core, time, "\"pid\":" + pid);
+                }
+                break;
+            case IO_START:
+                inIo.put(pid, time);
+                break;
+            case IO_END:
+                Integer start = inIo.remove(pid);
+                if (start != null) {
+                    slice("IO", IO_TRACK, pid, start, time, "\"pid\":" + pid);
+                }
+                break;
+            case SWI:
+                instant("SWI " + a, CPU_TRACK, core, time, "\"pid\":" + pid);
+                break;
+            case READY:
+                String queue = a >= 0 && a < QUEUE_IDS.length ? QUEUE_IDS[a].name() : String.valueOf(a);
+                instant("READY", CPU_TRACK, core, time, "\"pid\":" + pid + ",\"queue\":\"" + queue + "\"");
+                break;
+            case ARRIVE:
+                instant("ARRIVE", CPU_TRACK, core, time, "\"pid\":" + pid + ",\"startAfter\":" + a);
+                break;
+            case TERMINATE:
+                instant("TERMINATE", CPU_TRACK, core, time, "\"pid\":" + pid + ",\"turnaround\":" + a);
+                break;
+            case STEAL:
+                instant("STEAL", CPU_TRACK, core, time, "\"pid\":" + pid + ",\"from\":" + a);
+                break;
+            case PREEMPT:
+                instant("PREEMPT", CPU_TRACK, core, time, "\"pid\":" + pid);
+                break;
+            case LOAD:
+                instant("LOAD", MEMORY_TRACK, 0, time, "\"pid\":" + pid + ",\"address\":" + a + ",\"size\":" + b);
+                break;
+        }
+    }
+
+    /**
+     * Closes the slice of whatever was running on the core
+     */
+    private void leaveCore(int core, int time) throws IOException {
+        int[] slice = running.remove(core);
+        if (slice != null) {
+            slice("pid " + slice[0], CPU_TRACK, core, slice[1], time, "\"pid\":" + slice[0]);
+        }
+    }
+
+    private void finish() throws IOException {
+        for (int core : cores) {
+            metadata(CPU_TRACK, core, "core " + core);
+        }
+        //anything still running or in IO when the trace ended has nothing to close it, so those are left out
+    }
+
+    private void slice(String name, int track, int thread, int start, int end, String args) throws IOException {
+        event("{\"name\":\"" + name + "\",\"ph\":\"X\",\"pid\":" + track + ",\"tid\":" + thread
+                + ",\"ts\":" + start + ",\"dur\":" + (end - start) + ",\"args\":{" + args + "}}");
+    }
+
+    private void instant(String name, int track, int thread, int time, String args) throws IOException {
+        event("{\"name\":\"" + name + "\",\"ph\":\"i\",\"s\":\"t\",\"pid\":" + track + ",\"tid\":" + thread
+                + ",\"ts\":" + time + ",\"args\":{" + args + "}}");
+    }
+
+    private void metadata(int track, String name) throws IOException {
+        event("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":" + track + ",\"args\":{\"name\":\"" + name + "\"}}");
+    }
+
+    private void metadata(int track, int thread, String name) throws IOException {
+        event("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":" + track + ",\"tid\":" + thread
+                + ",\"args\":{\"name\":\"" + name + "\"}}");
+    }
+
+    private void event(String json) throws IOException {
+        if (!first) {
+            writer.write(",\n");
+        }
+        first = false;
+        writer.write(json);
+        events++;
+    }
+}
@@ -0,0 +1,38 @@
+package os.util;
+
+/**
+ * What a trace record is about. The two int arguments of a record mean something different per event.
+ */
+public enum TraceEvent {
+    //a: when it may start
+    ARRIVE,
+    //a: the ready queue it went into (QueueId ordinal)
+    READY,
+    //a: the pc it starts at
+    DISPATCH,
+    //a: the process that takes over
+    SWITCH,
+    //its quantum or slice ran out
+    PREEMPT,
+    //taken off the cpu to wait on IO or because it was preempted
+    STOP,
+    //a: the software interrupt
+    SWI,
+    //a: when the IO is done
+    IO_START,
+    IO_END,
+    //ran the END instruction
+    END,
+    //a: turnaround time
+    TERMINATE,
+    //a: the core it was taken from
+    STEAL,
+    //a: where it was loaded, b: program size
+    LOAD;
+
+    private static final TraceEvent[] VALUES = values();
+
+    public static TraceEvent of(int ordinal) {
+        return VALUES[ordinal];
+    }
+}
@@ -0,0 +1,126 @@
+package os.util;
+
+import vm.VmInstance;
+import vm.hardware.Clock;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Records what the scheduler, cpus, IO queue and memory do as fixed size binary records in a memory mapped file.
+ * The file is a ring, once it's full the oldest records get written over, so a trace can be left running
+ * for any length of run and keeps the most recent capacity records.
+ * Writing a record is a handful of puts into the mapped buffer, and when nothing is being recorded
+ * it's a single boolean check, so leaving the calls in costs the simulation nothing.
+ * TraceConverter turns the file into Chrome trace JSON.
+ *
+ * <pre>
+ * header  int magic, int version, int record size, int capacity, long records written, long unused
+ * record  int time, short event, short core, int pid, int a, int b
+ * </pre>
+ * Everything is little endian.
+ */
+public class TraceRecorder implements Logging {
+    public static final int MAGIC = 0x5254534F; //"OSTR"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 32;
+    public static final int RECORD_SIZE = 20;
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+    //a mapped buffer can't be bigger than 2GB
+    public static final int MAX_CAPACITY = (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE;
+    static final int WRITTEN_OFFSET = 16;
+
+    private final Clock clock;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private long written;
+    private boolean recording = false;
+
+    public TraceRecorder(Clock clock) {
+        this.clock = clock;
+    }
+
+    public static TraceRecorder getInstance() {
+        return VmInstance.current().getTraceRecorder();
+    }
+
+    /**
+     * Starts recording into the file, anything already in it is thrown away
+     *
+     * @param capacity how many records the ring holds before it starts writing over the oldest
+     */
+    public void start(Path file, int capacity) throws IOException {
+        if (capacity < 1 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Trace capacity has to be between 1 and " + MAX_CAPACITY + ": " + capacity);
+        }
+        stop();
+
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * RECORD_SIZE);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, RECORD_SIZE);
+        buffer.putInt(12, capacity);
+        buffer.putLong(WRITTEN_OFFSET, 0);
+
+        this.capacity = capacity;
+        written = 0;
+        recording = true;
+        log(LogSubsystem.SYSTEM, LogLevel.INFO, () -> "Tracing to " + file + ", " + capacity + " records");
+    }
+
+    /**
+     * Flushes the file and stops recording, does nothing if there wasn't a trace going
+     */
+    public void stop() throws IOException {
+        if (channel == null) {
+            return;
+        }
+
+        recording = false;
+        buffer.force();
+        channel.close();
+        channel = null;
+        buffer = null;
+        log(LogSubsystem.SYSTEM, LogLevel.INFO, () -> "Trace stopped after " + written + " records");
+    }
+
+    public boolean isRecording() {
+        return recording;
+    }
+
+    public long getWritten() {
+        return written;
+    }
+
+    public void record(TraceEvent event, int core, int pid) {
+        record(event, core, pid, 0, 0);
+    }
+
+    public void record(TraceEvent event, int core, int pid, int a) {
+        record(event, core, pid, a, 0);
+    }
+
+    public void record(TraceEvent event, int core, int pid, int a, int b) {
+        if (!recording) {
+            return;
+        }
+
+        int position = HEADER_SIZE + (int) (written % capacity) * RECORD_SIZE;
+        buffer.putInt(position, clock.getTime());
+        buffer.putShort(position + 4, (short) event.ordinal());
+        buffer.putShort(position + 6, (short) core);
+        buffer.putInt(position + 8, pid);
+        buffer.putInt(position + 12, a);
+        buffer.putInt(position + 16, b);
+        //the count goes in last so a reader never sees a record that's only half written
+        buffer.putLong(WRITTEN_OFFSET, ++written);
+    }
+}
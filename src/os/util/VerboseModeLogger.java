@@ -1,27 +1,45 @@
 package os.util;
 
-public class VerboseModeLogger {
-    private boolean verboseMode = false;
+import vm.VmInstance;
+
+import java.util.Arrays;
 
-    private static VerboseModeLogger instance;
+public class VerboseModeLogger {
+    private final LogLevel[] levels = new LogLevel[LogSubsystem.values().length];
 
-    private VerboseModeLogger() {
+    public VerboseModeLogger() {
+        Arrays.fill(levels, LogLevel.OFF);
     }
 
     public static VerboseModeLogger getInstance() {
-        if (instance == null) {
-            instance = new VerboseModeLogger();
-        }
-
-        return instance;
+        return VmInstance.current().getLogger();
     }
 
+    /**
+     * Verbose mode turns every subsystem all the way up, turning it off silences all of them
+     */
     public void setVerboseMode(boolean verboseMode) {
-        this.verboseMode = verboseMode;
+        Arrays.fill(levels, verboseMode ? LogLevel.DEBUG : LogLevel.OFF);
+    }
+
+    public void setLevel(LogSubsystem subsystem, LogLevel level) {
+        levels[subsystem.ordinal()] = level;
+    }
+
+    public LogLevel getLevel(LogSubsystem subsystem) {
+        return levels[subsystem.ordinal()];
+    }
+
+    public boolean isEnabled(LogSubsystem subsystem, LogLevel level) {
+        return levels[subsystem.ordinal()].compareTo(level) >= 0;
     }
 
     public void print(String message) {
-        if (verboseMode) {
+        print(LogSubsystem.SYSTEM, LogLevel.INFO, message);
+    }
+
+    public void print(LogSubsystem subsystem, LogLevel level, String message) {
+        if (isEnabled(subsystem, level)) {
             System.out.println(message);
         }
     }
@@ -29,4 +47,20 @@ public class VerboseModeLogger {
     public void printError() {
         print("Program encountered error, for more information please call errordump.");
     }
+
+    /**
+     * Fills each {} in the pattern with the next argument, only called once we know the message will be printed
+     */
+    static String format(String pattern, int... args) {
+        StringBuilder sb = new StringBuilder(pattern.length() + args.length * 8);
+        int arg = 0;
+        int from = 0;
+        int at;
+        while (arg < args.length && (at = pattern.indexOf("{}", from)) >= 0) {
+            sb.append(pattern, from, at).append(args[arg++]);
+            from = at + 2;
+        }
+
+        return sb.append(pattern, from, pattern.length()).toString();
+    }
 }
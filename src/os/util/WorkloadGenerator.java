@@ -0,0 +1,166 @@
+package os.util;
+
+import vm.hardware.Cpu;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Builds synthetic workloads straight into program images, the in-JVM version of files/create-programs.py.
+ * Every program starts with MVI R0 0 and MVI R1 1 like the generated cases, then each instruction is either
+ * ADD R0 R0 R1 or an IO call (SWI 4). Cpu bound programs do IO one instruction in ten and io bound ones one in two.
+ * The lengths and the gaps between arrivals come from distributions, and everything is drawn from one seeded
+ * Random so the same settings always give the same workload.
+ */
+public class WorkloadGenerator {
+    public static final double CPU_BOUND_IO_RATE = 0.1;
+    public static final double IO_BOUND_IO_RATE = 0.5;
+
+    private static final int HEADER_SIZE = 12;
+    private static final int INSTRUCTION_SIZE = 6;
+    private static final byte PADDING = ' ';
+    private static final int IO_CALL = 4;
+    //the two MVIs every program starts with
+    private static final int PROLOGUE = 2;
+
+    private final int processes;
+    private final long seed;
+    private double ioBoundFraction = 0.5;
+    private Distribution length = Distribution.uniform(10, 200);
+    private Distribution interArrival = Distribution.fixed(0);
+
+    public WorkloadGenerator(int processes, long seed) {
+        if (processes < 1) {
+            throw new IllegalArgumentException("Need at least one process");
+        }
+        this.processes = processes;
+        this.seed = seed;
+    }
+
+    /**
+     * @param ioBoundFraction the share of programs that are io bound, the rest are cpu bound
+     */
+    public void setIoBoundFraction(double ioBoundFraction) {
+        if (ioBoundFraction < 0 || ioBoundFraction > 1) {
+            throw new IllegalArgumentException("The io bound fraction has to be between 0 and 1");
+        }
+        this.ioBoundFraction = ioBoundFraction;
+    }
+
+    /**
+     * @param length instructions per program after the two MVIs, at least one is always generated
+     */
+    public void setLength(Distribution length) {
+        this.length = length;
+    }
+
+    /**
+     * @param interArrival ticks between one program arriving and the next, fixed 0 has everything arrive at once
+     */
+    public void setInterArrival(Distribution interArrival) {
+        this.interArrival = interArrival;
+    }
+
+    /**
+     * @param firstArrival the clock time the first program arrives at
+     */
+    public List<Program> generate(int firstArrival) {
+        Random random = new Random(seed);
+        List<Program> programs = new ArrayList<>(processes);
+        int arrival = firstArrival;
+        for (int i = 0; i < processes; i++) {
+            if (i > 0) {
+                arrival += interArrival.sample(random);
+            }
+            boolean ioBound = random.nextDouble() < ioBoundFraction;
+            int instructions = Math.max(1, length.sample(random));
+            byte[] image = image(instructions, ioBound ? IO_BOUND_IO_RATE : CPU_BOUND_IO_RATE, random);
+            programs.add(new Program("generated/" + seed + "/" + (i + 1) + (ioBound ? "-io" : "-cpu"), image, arrival, ioBound));
+        }
+        return programs;
+    }
+
+    private static byte[] image(int instructions, double ioRate, Random random) {
+        int codeSize = (PROLOGUE + instructions) * INSTRUCTION_SIZE;
+        byte[] image = new byte[HEADER_SIZE + codeSize];
+        ByteBuffer ints = ByteBuffer.wrap(image).order(ByteOrder.LITTLE_ENDIAN);
+        ints.putInt(0, codeSize);
+
+        int at = HEADER_SIZE;
+        for (int register = 0; register < PROLOGUE; register++) {
+            //MVI Rn n
+            image[at] = Cpu.MVI;
+            image[at + 1] = (byte) register;
+            ints.putInt(at + 2, register);
+            at += INSTRUCTION_SIZE;
+        }
+
+        for (int i = 0; i < instructions; i++) {
+            if (random.nextDouble() < ioRate) {
+                //SWI 4
+                image[at] = Cpu.SWI;
+                ints.putInt(at + 1, IO_CALL);
+                image[at + 5] = PADDING;
+            } else {
+                //ADD R0 R0 R1
+                image[at] = Cpu.ADD;
+                image[at + 1] = 0;
+                image[at + 2] = 0;
+                image[at + 3] = 1;
+                image[at + 4] = PADDING;
+                image[at + 5] = PADDING;
+            }
+            at += INSTRUCTION_SIZE;
+        }
+        return image;
+    }
+
+    @Override
+    public String toString() {
+        return processes + " processes, seed " + seed + ", " + ioBoundFraction + " io bound, length " + length
+                + ", inter-arrival " + interArrival;
+    }
+
+    /**
+     * One generated program, the name stands in for its file path
+     */
+    public static class Program {
+        private final String name;
+        private final byte[] image;
+        private final int arrival;
+        private final boolean ioBound;
+
+        Program(String name, byte[] image, int arrival, boolean ioBound) {
+            this.name = name;
+            this.image = image;
+            this.arrival = arrival;
+            this.ioBound = ioBound;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public byte[] getImage() {
+            return image;
+        }
+
+        /**
+         * @return the size of the program in memory, without the header
+         */
+        public int getCodeSize() {
+            return image.length - HEADER_SIZE;
+        }
+
+        public int getArrival() {
+            return arrival;
+        }
+
+        public boolean isIoBound() {
+            return ioBound;
+        }
+    }
+}
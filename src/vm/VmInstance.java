@@ -0,0 +1,157 @@
+package vm;
+
+import os.OperatingSystem;
+import os.util.ErrorDump;
+import os.util.TraceRecorder;
+import os.util.VerboseModeLogger;
+import vm.hardware.Clock;
+import vm.hardware.Cpu;
+import vm.hardware.Memory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+/**
+ * Everything that makes up one virtual machine: its clock, logs, trace, memory, cpu and operating system.
+ * The getInstance() methods on each of those return the parts of the VmInstance bound to the current thread,
+ * or the default instance the shell uses when nothing is bound. That lets several machines run side by side,
+ * one per thread, without sharing any state.
+ */
+public class VmInstance {
+    private static final ThreadLocal<VmInstance> CURRENT = new ThreadLocal<>();
+    private static volatile VmInstance defaultInstance;
+
+    private final Random random;
+    private final Clock clock;
+    private final VerboseModeLogger logger;
+    private final ErrorDump errorDump;
+    private final TraceRecorder traceRecorder;
+    private final Memory memory;
+    //one cpu per core, all sharing the same memory and clock
+    private final List<Cpu> cpus = new ArrayList<>();
+    private final OperatingSystem operatingSystem;
+
+    public VmInstance() {
+        this(new Random());
+    }
+
+    /**
+     * @param random the source for everything random in this machine (IO times, wait times), seed it to get repeatable runs
+     */
+    public VmInstance(Random random) {
+        this.random = random;
+
+        //the parts look each other up through getInstance() while they are built, so bind this machine until we're done
+        VmInstance previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            clock = new Clock();
+            logger = new VerboseModeLogger();
+            errorDump = new ErrorDump(logger);
+            traceRecorder = new TraceRecorder(clock);
+            memory = new Memory(clock);
+            cpus.add(new Cpu(memory, clock, 0));
+            operatingSystem = new OperatingSystem();
+        } finally {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * @return the machine bound to this thread, or the default one if there isn't one
+     */
+    public static VmInstance current() {
+        VmInstance vm = CURRENT.get();
+        return vm != null ? vm : getDefault();
+    }
+
+    public static VmInstance getDefault() {
+        VmInstance vm = defaultInstance;
+        if (vm == null) {
+            synchronized (VmInstance.class) {
+                if (defaultInstance == null) {
+                    defaultInstance = new VmInstance();
+                }
+                vm = defaultInstance;
+            }
+        }
+        return vm;
+    }
+
+    /**
+     * Runs the task with this machine bound to the calling thread
+     */
+    public <T> T call(Callable<T> task) throws Exception {
+        VmInstance previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return task.call();
+        } finally {
+            CURRENT.set(previous);
+        }
+    }
+
+    public Random getRandom() {
+        return random;
+    }
+
+    public Clock getClock() {
+        return clock;
+    }
+
+    public VerboseModeLogger getLogger() {
+        return logger;
+    }
+
+    public ErrorDump getErrorDump() {
+        return errorDump;
+    }
+
+    public TraceRecorder getTraceRecorder() {
+        return traceRecorder;
+    }
+
+    public Memory getMemory() {
+        return memory;
+    }
+
+    /**
+     * @return core 0, the only core unless more have been added with setCoreCount
+     */
+    public Cpu getCpu() {
+        return cpus.getFirst();
+    }
+
+    public Cpu getCpu(int core) {
+        return cpus.get(core);
+    }
+
+    public int getCoreCount() {
+        return cpus.size();
+    }
+
+    /**
+     * Adds or removes cores. New cores run in the same interpreter mode as core 0.
+     */
+    public void setCoreCount(int cores) {
+        while (cpus.size() < cores) {
+            Cpu cpu = new Cpu(memory, clock, cpus.size());
+            cpu.setPredecodedMode(getCpu().isPredecodedMode());
+            cpus.add(cpu);
+        }
+        while (cpus.size() > cores) {
+            memory.detach(cpus.removeLast());
+        }
+
+        //with more than one core nobody gets to move the clock on their own
+        for (Cpu cpu : cpus) {
+            cpu.setSharedClock(cores > 1);
+        }
+    }
+
+    public OperatingSystem getOperatingSystem() {
+        return operatingSystem;
+    }
+}
@@ -1,20 +1,17 @@
 package vm.hardware;
 
 import util.Subject;
+import vm.VmInstance;
 
 public class Clock extends Subject {
-    private static Clock instance;
     private int time;
 
-    private Clock() {
+    public Clock() {
         time = 1;
     }
 
-    public static synchronized Clock getInstance() {
-        if (instance == null) {
-            instance = new Clock();
-        }
-        return instance;
+    public static Clock getInstance() {
+        return VmInstance.current().getClock();
     }
 
     public int getTime() {
@@ -2,32 +2,60 @@ package vm.hardware;
 
 import os.OperatingSystem;
 import os.ProcessControlBlock;
+import os.util.LogLevel;
+import os.util.LogSubsystem;
 import os.util.Logging;
+import os.util.TraceEvent;
+import os.util.TraceRecorder;
+import os.util.VerboseModeLogger;
+import vm.VmInstance;
 
 import java.util.Random;
 
 
 public class Cpu implements Logging {
-    private static Cpu instance;
-    private final Memory memory = Memory.getInstance();
+    private final int core;
+    private final Clock clock;
+    private final Memory memory;
+    private final VerboseModeLogger logger = VerboseModeLogger.getInstance();
+    private final TraceRecorder trace = TraceRecorder.getInstance();
+    private final Random random = VmInstance.current().getRandom();
     private boolean idle = true;
     private boolean kernelMode = false;
 
     private ProcessControlBlock currentPcb;
     private final int[] registers = new int[12];
 
-    static final int MOV = 1;
-    static final int STR = 2;
-    static final int BX = 6;
-    static final int ADD = 16;
-    static final int SUB = 17;
-    static final int MUL = 18;
-    static final int DIV = 19;
-    static final int SWI = 20;
-    static final int MVI = 22;
-    static final int END = 99;
-
-    private Cpu() {
+    //predecoded execution is the default, the byte interpreter is kept around to compare against
+    private boolean predecodedMode = true;
+    private long instructionsExecuted = 0;
+    //ticks spent running a process, instructions plus waits
+    private long busyTicks = 0;
+
+    //on a multi-core machine the clock is ticked once for all cores, so a wait stalls this core instead of moving time
+    private boolean sharedClock = false;
+    private int stalledTicks = 0;
+
+    public static final int MOV = 1;
+    public static final int STR = 2;
+    public static final int BX = 6;
+    public static final int ADD = 16;
+    public static final int SUB = 17;
+    public static final int MUL = 18;
+    public static final int DIV = 19;
+    public static final int SWI = 20;
+    public static final int MVI = 22;
+    public static final int END = 99;
+
+    public Cpu(Memory memory, Clock clock, int core) {
+        this.core = core;
+        this.memory = memory;
+        this.clock = clock;
+        memory.attach(this);
+    }
+
+    public int getCore() {
+        return core;
     }
 
     public int getProgramCounter() {
@@ -38,25 +66,58 @@ public class Cpu implements Logging {
         registers[11] = val;
     }
 
+    ProcessControlBlock getCurrentProcess() {
+        return currentPcb;
+    }
+
     public void addToPC(int val) {
         registers[11] += val;
     }
 
+    public boolean isPredecodedMode() {
+        return predecodedMode;
+    }
+
+    public void setPredecodedMode(boolean predecodedMode) {
+        log(LogSubsystem.CPU, LogLevel.INFO, predecodedMode ? "Predecoded interpreter" : "Byte interpreter");
+        this.predecodedMode = predecodedMode;
+    }
+
+    public long getInstructionsExecuted() {
+        return instructionsExecuted;
+    }
+
+    public long getBusyTicks() {
+        return busyTicks;
+    }
+
+    /**
+     * @return true while the core is sitting out a wait
+     */
+    public boolean isStalled() {
+        return stalledTicks > 0;
+    }
+
+    public void setSharedClock(boolean sharedClock) {
+        this.sharedClock = sharedClock;
+    }
+
     public boolean isKernelMode() {
         return kernelMode;
     }
 
     public void setKernelMode(boolean kernelMode) {
-        log(kernelMode ? "Kernel mode" : "User mode");
+        log(LogSubsystem.CPU, LogLevel.DEBUG, kernelMode ? "Kernel mode" : "User mode");
         this.kernelMode = kernelMode;
     }
 
     public static Cpu getInstance() {
-        if (instance == null) {
-            instance = new Cpu();
-        }
+        return VmInstance.current().getCpu();
+    }
 
-        return instance;
+    @Override
+    public VerboseModeLogger logger() {
+        return logger;
     }
 
     private boolean validateRegister(int r) {
@@ -83,178 +144,333 @@ public class Cpu implements Logging {
         currentPcb = pcb;
     }
 
+    /**
+     * Runs the process until it stops, ticking the clock after every instruction
+     */
     public void run(ProcessControlBlock pcb, OperatingSystem os) {
+        start(pcb);
+        while (step(os)) {
+            clock.tick();
+        }
+    }
+
+    /**
+     * Loads the process onto this cpu without running anything, the caller steps it and ticks the clock
+     */
+    public void start(ProcessControlBlock pcb) {
         loadRegistersFromPcb(pcb);
+        stalledTicks = 0;
         idle = false;
+        trace.record(TraceEvent.DISPATCH, core, pcb.getPid(), registers[11]);
+    }
 
-        while (true) {
-            int curr = memory.getByte();
+    /**
+     * Executes a single instruction of the current process, or waits out one tick of a wait
+     *
+     * @return false if the cpu stopped running
+     */
+    public boolean step(OperatingSystem os) {
+        if (stalledTicks > 0 && !idle) {
+            stalledTicks--;
+            busyTicks++;
+            return true;
+        }
 
-            if(idle){
-                //if the cpu has been set to idle it has been stopped and we need to bail
-                return;
-            }
+        DecodedProgram program = predecodedMode ? currentPcb.getDecodedProgram() : null;
+        int slot = program == null ? -1 : program.slotAt(registers[11]);
 
-            switch (curr) {
-                case ADD:
-                    log("ADD");
-
-                    int resultR = memory.getByte();
-                    int val1R = memory.getByte();
-                    int val2R = memory.getByte();
-
-                    addToPC(2);
-
-                    if (isNotValidRegisters(resultR, val1R, val2R)) {
-                        return;
-                    }
-
-                    registers[resultR] = registers[val1R] + registers[val2R];
-
-                    log("Register: " + val1R + " Value: " + registers[val1R]);
-                    log("Register: " + val2R + " Value: " + registers[val2R]);
-                    log(registers[val1R] + " + " + registers[val2R] + " = " + registers[resultR]);
-                    break;
-                case SUB:
-                    log("SUB");
-
-                    int subR = memory.getByte();
-                    int sub1R = memory.getByte();
-                    int sub2R = memory.getByte();
-
-                    addToPC(2);
-
-                    if (isNotValidRegisters(subR, sub1R, sub2R)) {
-                        return;
-                    }
-
-                    log("Register: " + sub1R + " Value: " + registers[sub1R]);
-                    log("Register: " + sub2R + " Value: " + registers[sub2R]);
-
-                    registers[subR] = registers[sub1R] - registers[sub2R];
-                    log(registers[sub1R] + " - " + registers[sub2R] + " = " + registers[subR]);
-                    break;
-                case MUL:
-                    log("MUL");
-                    int mulR = memory.getByte();
-                    int mul1R = memory.getByte();
-                    int mul2R = memory.getByte();
-
-                    addToPC(2);
-
-                    if (isNotValidRegisters(mulR, mul1R, mul2R)) {
-                        return;
-                    }
-
-                    registers[mulR] = registers[mul1R] * registers[mul2R];
-                    log("Register: " + mul1R + " Value: " + registers[mul1R]);
-                    log("Register: " + mul2R + " Value: " + registers[mul2R]);
-                    log(registers[mul1R] + " * " + registers[mul2R] + " = " + registers[mulR]);
-                    break;
-                case DIV:
-                    log("DIV");
-                    int divR = memory.getByte();
-                    int div1R = memory.getByte();
-                    int div2R = memory.getByte();
-
-                    addToPC(2);
-
-                    if (isNotValidRegisters(divR, div1R, div2R)) {
-                        return;
-                    }
-
-                    registers[divR] = registers[div1R] / registers[div2R];
-                    log("Register: " + div1R + " Value: " + registers[div1R]);
-                    log("Register: " + div2R + " Value: " + registers[div2R]);
-                    log(registers[div1R] + " / " + registers[div2R] + " = " + registers[divR]);
-                    break;
-                case SWI:
-                    log("SWI");
-                    swi(os, pcb);
-                    break;
-                case MVI:
-                    log("MVI");
-                    int r = memory.getByte();
-                    int val = memory.getInt();
-
-                    if (isNotValidRegisters(r)) {
-                        return;
-                    }
-
-                    registers[r] = val;
-                    log("Register: " + r + " Value: " + val);
-                    break;
-                case MOV:
-                    log("MOV");
-
-                    int dest = memory.getByte();
-                    int src = memory.getByte();
-                    addToPC(3);
-
-                    if (isNotValidRegisters(dest, src)) {
-                        return;
-                    }
-
-                    registers[dest] = registers[src];
-                    log("Register: " + src + " Value: " + registers[src]);
-                    log("Register: " + dest + " Value: " + registers[dest]);
-                    break;
-                case STR:
-                    log("STR");
-
-                    int destR = memory.getByte();
-                    int srcR = memory.getByte();
-                    addToPC(3);
-
-                    if (isNotValidRegisters(destR, srcR)) {
-                        return;
-                    }
-
-                    memory.setInt((byte) registers[srcR], registers[destR]);
-                    log("Register: " + srcR + " Value: " + registers[srcR]);
-                    log("Register: " + destR + " Value: " + registers[destR]);
-                    break;
-
-                case END:
-                    currentPcb.setRegisters(registers);
-                    os.terminateProcess(currentPcb);
-                    idle = true;
-                    return;
-
-                default:
-                    logError("Process " + currentPcb.getPid() + ": Invalid instruction " + curr);
-                    return;
-            }
-            Clock.getInstance().tick();
+        //anything that was not predecoded (or has since been written over) goes through the byte interpreter
+        boolean keepRunning = slot < 0 ? stepInterpreted(os) : stepDecoded(program, slot, os);
+        if (keepRunning) {
+            instructionsExecuted++;
+            busyTicks++;
+        }
+
+        return keepRunning;
+    }
+
+    /**
+     * Executes a single predecoded instruction.
+     * The pc is moved exactly as far as the byte interpreter would move it so both paths can be mixed.
+     *
+     * @return false if the cpu should stop running
+     */
+    private boolean stepDecoded(DecodedProgram program, int slot, OperatingSystem os) {
+        final int[] code = program.code;
+        final int i = slot * DecodedProgram.WIDTH;
+        final int op = code[i];
+        final int a = code[i + 1];
+        final int b = code[i + 2];
+        final int c = code[i + 3];
+
+        boolean singleByte = op == END || op == DecodedProgram.TRAP_OPCODE;
+        registers[11] += singleByte ? 1 : DecodedProgram.INSTRUCTION_SIZE;
+
+        if (idle) {
+            //if the cpu has been set to idle it has been stopped and we need to bail
+            return false;
+        }
+
+        switch (op) {
+            case ADD:
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "ADD");
+                registers[a] = registers[b] + registers[c];
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "Register: {} Value: {}", b, registers[b]);
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "Register: {} Value: {}", c, registers[c]);
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "{} + {} = {}", registers[b], registers[c], registers[a]);
+                break;
+            case SUB:
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "SUB");
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "Register: {} Value: {}", b, registers[b]);
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "Register: {} Value: {}", c, registers[c]);
+                registers[a] = registers[b] - registers[c];
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "{} - {} = {}", registers[b], registers[c], registers[a]);
+                break;
+            case MUL:
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "MUL");
+                registers[a] = registers[b] * registers[c];
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "Register: {} Value: {}", b, registers[b]);
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "Register: {} Value: {}", c, registers[c]);
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "{} * {} = {}", registers[b], registers[c], registers[a]);
+                break;
+            case DIV:
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "DIV");
+                registers[a] = registers[b] / registers[c];
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "Register: {} Value: {}", b, registers[b]);
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "Register: {} Value: {}", c, registers[c]);
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "{} / {} = {}", registers[b], registers[c], registers[a]);
+                break;
+            case SWI:
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "SWI");
+                swi(c, os, currentPcb);
+                break;
+            case MVI:
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "MVI");
+                registers[a] = c;
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "Register: {} Value: {}", a, c);
+                break;
+            case MOV:
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "MOV");
+                registers[a] = registers[b];
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "Register: {} Value: {}", b, registers[b]);
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "Register: {} Value: {}", a, registers[a]);
+                break;
+            case STR:
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "STR");
+                memory.setInt(this, (byte) registers[b], registers[a]);
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "Register: {} Value: {}", b, registers[b]);
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "Register: {} Value: {}", a, registers[a]);
+                break;
+            case END:
+                trace.record(TraceEvent.END, core, currentPcb.getPid());
+                currentPcb.setRegisters(registers);
+                os.terminateProcess(currentPcb);
+                idle = true;
+                return false;
+            case DecodedProgram.TRAP_REGISTER:
+                log(LogSubsystem.CPU, LogLevel.DEBUG, mnemonic(b));
+                logError("Invalid register: " + a);
+                return false;
+            default:
+                logError("Process " + currentPcb.getPid() + ": Invalid instruction " + a);
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Decodes and executes a single instruction straight out of memory.
+     *
+     * @return false if the cpu should stop running
+     */
+    private boolean stepInterpreted(OperatingSystem os) {
+        int curr = memory.getByte(this);
+
+        if(idle){
+            //if the cpu has been set to idle it has been stopped and we need to bail
+            return false;
         }
+
+        switch (curr) {
+            case ADD:
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "ADD");
+
+                int resultR = memory.getByte(this);
+                int val1R = memory.getByte(this);
+                int val2R = memory.getByte(this);
+
+                addToPC(2);
+
+                if (isNotValidRegisters(resultR, val1R, val2R)) {
+                    return false;
+                }
+
+                registers[resultR] = registers[val1R] + registers[val2R];
+
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "Register: {} Value: {}", val1R, registers[val1R]);
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "Register: {} Value: {}", val2R, registers[val2R]);
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "{} + {} = {}", registers[val1R], registers[val2R], registers[resultR]);
+                break;
+            case SUB:
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "SUB");
+
+                int subR = memory.getByte(this);
+                int sub1R = memory.getByte(this);
+                int sub2R = memory.getByte(this);
+
+                addToPC(2);
+
+                if (isNotValidRegisters(subR, sub1R, sub2R)) {
+                    return false;
+                }
+
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "Register: {} Value: {}", sub1R, registers[sub1R]);
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "Register: {} Value: {}", sub2R, registers[sub2R]);
+
+                registers[subR] = registers[sub1R] - registers[sub2R];
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "{} - {} = {}", registers[sub1R], registers[sub2R], registers[subR]);
+                break;
+            case MUL:
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "MUL");
+                int mulR = memory.getByte(this);
+                int mul1R = memory.getByte(this);
+                int mul2R = memory.getByte(this);
+
+                addToPC(2);
+
+                if (isNotValidRegisters(mulR, mul1R, mul2R)) {
+                    return false;
+                }
+
+                registers[mulR] = registers[mul1R] * registers[mul2R];
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "Register: {} Value: {}", mul1R, registers[mul1R]);
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "Register: {} Value: {}", mul2R, registers[mul2R]);
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "{} * {} = {}", registers[mul1R], registers[mul2R], registers[mulR]);
+                break;
+            case DIV:
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "DIV");
+                int divR = memory.getByte(this);
+                int div1R = memory.getByte(this);
+                int div2R = memory.getByte(this);
+
+                addToPC(2);
+
+                if (isNotValidRegisters(divR, div1R, div2R)) {
+                    return false;
+                }
+
+                registers[divR] = registers[div1R] / registers[div2R];
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "Register: {} Value: {}", div1R, registers[div1R]);
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "Register: {} Value: {}", div2R, registers[div2R]);
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "{} / {} = {}", registers[div1R], registers[div2R], registers[divR]);
+                break;
+            case SWI:
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "SWI");
+                int call = memory.getInt(this);
+                addToPC(1);
+                swi(call, os, currentPcb);
+                break;
+            case MVI:
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "MVI");
+                int r = memory.getByte(this);
+                int val = memory.getInt(this);
+
+                if (isNotValidRegisters(r)) {
+                    return false;
+                }
+
+                registers[r] = val;
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "Register: {} Value: {}", r, val);
+                break;
+            case MOV:
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "MOV");
+
+                int dest = memory.getByte(this);
+                int src = memory.getByte(this);
+                addToPC(3);
+
+                if (isNotValidRegisters(dest, src)) {
+                    return false;
+                }
+
+                registers[dest] = registers[src];
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "Register: {} Value: {}", src, registers[src]);
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "Register: {} Value: {}", dest, registers[dest]);
+                break;
+            case STR:
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "STR");
+
+                int destR = memory.getByte(this);
+                int srcR = memory.getByte(this);
+                addToPC(3);
+
+                if (isNotValidRegisters(destR, srcR)) {
+                    return false;
+                }
+
+                memory.setInt(this, (byte) registers[srcR], registers[destR]);
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "Register: {} Value: {}", srcR, registers[srcR]);
+                log(LogSubsystem.CPU, LogLevel.DEBUG, "Register: {} Value: {}", destR, registers[destR]);
+                break;
+
+            case END:
+                trace.record(TraceEvent.END, core, currentPcb.getPid());
+                currentPcb.setRegisters(registers);
+                os.terminateProcess(currentPcb);
+                idle = true;
+                return false;
+
+            default:
+                logError("Process " + currentPcb.getPid() + ": Invalid instruction " + curr);
+                return false;
+        }
+
+        return true;
+    }
+
+    private static String mnemonic(int op) {
+        return switch (op) {
+            case ADD -> "ADD";
+            case SUB -> "SUB";
+            case MUL -> "MUL";
+            case DIV -> "DIV";
+            case MVI -> "MVI";
+            case MOV -> "MOV";
+            case STR -> "STR";
+            default -> String.valueOf(op);
+        };
     }
 
-    private void swi(OperatingSystem os, ProcessControlBlock pcb) {
-        int c = memory.getInt();
+    private void swi(int c, OperatingSystem os, ProcessControlBlock pcb) {
         setKernelMode(true);
-        addToPC(1);
+        trace.record(TraceEvent.SWI, core, pcb.getPid(), c);
         switch (c) {
             case 0:
-                log("Printing register 0");
+                log(LogSubsystem.CPU, LogLevel.INFO, "Printing register 0");
                 System.out.println("Register 0: " + registers[0]);
                 break;
             case 1:
-                log("Printing register 1");
+                log(LogSubsystem.CPU, LogLevel.INFO, "Printing register 1");
                 System.out.println("Register 1: " + registers[1]);
                 break;
             case 2:
-                log("vfork");
+                log(LogSubsystem.CPU, LogLevel.INFO, "vfork");
                 startChildProcess(os, pcb);
                 break;
             case 3:
-                log("wait");
-                Random random = new Random();
+                log(LogSubsystem.CPU, LogLevel.INFO, "wait");
                 int randomTicks = random.nextInt(20) + 1;
-                log("Waiting for " + randomTicks + " ticks");
-                Clock.getInstance().tick(randomTicks);
+                log(LogSubsystem.CPU, LogLevel.INFO, "Waiting for {} ticks", randomTicks);
+                if (sharedClock) {
+                    stalledTicks = randomTicks;
+                } else {
+                    busyTicks += randomTicks;
+                    clock.tick(randomTicks);
+                }
                 break;
             case 4:
-                log("io");
+                log(LogSubsystem.CPU, LogLevel.INFO, "io");
                 os.addToIOQueue(currentPcb);
                 break;
             default:
@@ -266,14 +482,16 @@ public class Cpu implements Logging {
 
     private void startChildProcess(OperatingSystem os, ProcessControlBlock parent) {
         parent.setRegisters(registers);
-        log("Starting child process");
+        log(LogSubsystem.CPU, LogLevel.INFO, "Starting child process");
         ProcessControlBlock child = os.startChildProcess(parent);
         parent.addChild(child);
-        log("Back to parent");
+        log(LogSubsystem.CPU, LogLevel.INFO, "Back to parent");
         loadRegistersFromPcb(parent);
+        trace.record(TraceEvent.DISPATCH, core, parent.getPid(), registers[11]);
     }
 
     public void transition(ProcessControlBlock next) {
+        trace.record(TraceEvent.SWITCH, core, currentPcb.getPid(), next.getPid());
         currentPcb.setRegisters(registers);
         loadRegistersFromPcb(next);
     }
@@ -283,6 +501,7 @@ public class Cpu implements Logging {
     }
 
     public void stopProcess() {
+        trace.record(TraceEvent.STOP, core, currentPcb.getPid());
         currentPcb.setRegisters(registers);
         idle = true;
     }
@@ -0,0 +1,165 @@
+package vm.hardware;
+
+import java.util.Arrays;
+
+/**
+ * A program translated once at load time into fixed width slots so the cpu does not have to
+ * decode bytes, bump the pc per operand or re-validate registers on every execution.
+ * Every instruction in our format is 6 bytes long, so slot k lives at address base + 6k.
+ * Each slot holds {opcode, a, b, c}:
+ * ADD/SUB/MUL/DIV -> a = result, b = val1, c = val2
+ * MOV/STR -> a = dest, b = src
+ * MVI -> a = register, c = immediate
+ * SWI -> c = call number
+ * Instructions that would fail at runtime are turned into traps so the error is still raised when they execute.
+ */
+public class DecodedProgram {
+    static final int INSTRUCTION_SIZE = 6;
+    static final int WIDTH = 4;
+
+    //opcodes outside the byte range so they can never collide with a real instruction
+    static final int TRAP_REGISTER = 256;
+    static final int TRAP_OPCODE = 257;
+
+    private static final int MAX_REGISTER = 12;
+
+    private int base;
+    private int end;
+    final int[] code;
+    private boolean valid = true;
+
+    private DecodedProgram(int base, int end, int[] code) {
+        this.base = base;
+        this.end = end;
+        this.code = code;
+    }
+
+    /**
+     * Decodes the instructions of a program image from codeStart up to and including the END at endAddress.
+     * Address a is read from bytes[offset + a], the END is the byte Memory adds after the image so it isn't read.
+     * A trailing partial instruction is left out and will be handled by the byte interpreter.
+     */
+    static DecodedProgram decode(byte[] bytes, int offset, int codeStart, int endAddress) {
+        if (codeStart < 0 || codeStart > endAddress) {
+            //pc points outside of the program, nothing we can safely decode
+            return new DecodedProgram(codeStart, codeStart, new int[0]);
+        }
+
+        int slots = (endAddress - codeStart) / INSTRUCTION_SIZE + 1;
+        int[] code = new int[slots * WIDTH];
+        int decoded = 0;
+
+        for (int address = codeStart; address <= endAddress; address += INSTRUCTION_SIZE) {
+            int op = address == endAddress ? Cpu.END : bytes[offset + address];
+            int i = decoded * WIDTH;
+
+            if (op != Cpu.END && address + INSTRUCTION_SIZE > endAddress) {
+                //not enough bytes left for a whole instruction
+                break;
+            }
+
+            switch (op) {
+                case Cpu.ADD, Cpu.SUB, Cpu.MUL, Cpu.DIV:
+                    setSlot(code, i, op, bytes[offset + address + 1], bytes[offset + address + 2], bytes[offset + address + 3]);
+                    break;
+                case Cpu.MOV, Cpu.STR:
+                    setSlot(code, i, op, bytes[offset + address + 1], bytes[offset + address + 2], 0);
+                    break;
+                case Cpu.MVI:
+                    code[i] = op;
+                    code[i + 1] = bytes[offset + address + 1];
+                    code[i + 3] = Memory.readInt(bytes, offset + address + 2);
+                    validateRegisters(code, i, 1);
+                    break;
+                case Cpu.SWI:
+                    code[i] = op;
+                    code[i + 3] = Memory.readInt(bytes, offset + address + 1);
+                    break;
+                case Cpu.END:
+                    code[i] = op;
+                    break;
+                default:
+                    code[i] = TRAP_OPCODE;
+                    code[i + 1] = op;
+                    break;
+            }
+
+            decoded++;
+            if (op == Cpu.END && address == endAddress) {
+                break;
+            }
+        }
+
+        int[] trimmed = decoded * WIDTH == code.length ? code : Arrays.copyOf(code, decoded * WIDTH);
+        return new DecodedProgram(codeStart, codeStart + decoded * INSTRUCTION_SIZE, trimmed);
+    }
+
+    private static void setSlot(int[] code, int i, int op, int a, int b, int c) {
+        code[i] = op;
+        code[i + 1] = a;
+        code[i + 2] = b;
+        code[i + 3] = c;
+        validateRegisters(code, i, op == Cpu.MOV || op == Cpu.STR ? 2 : 3);
+    }
+
+    //same order as the byte interpreter so the first bad register is the one reported
+    private static void validateRegisters(int[] code, int i, int count) {
+        for (int r = 1; r <= count; r++) {
+            int register = code[i + r];
+            if (register < 0 || register >= MAX_REGISTER) {
+                //keep the original opcode around so the trap can still be reported as that instruction
+                code[i + 2] = code[i];
+                code[i] = TRAP_REGISTER;
+                code[i + 1] = register;
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the slot for the given pc or -1 if the pc is not on a decoded instruction
+     */
+    int slotAt(int pc) {
+        if (!valid || pc < base || pc >= end) {
+            return -1;
+        }
+
+        int offset = pc - base;
+        if (offset % INSTRUCTION_SIZE != 0) {
+            return -1;
+        }
+
+        return offset / INSTRUCTION_SIZE;
+    }
+
+    boolean overlaps(int start, int length) {
+        return start < end && start + length > base;
+    }
+
+    /**
+     * Follows the program when compaction moves it, the slots don't hold any addresses
+     */
+    void relocate(int delta) {
+        base += delta;
+        end += delta;
+    }
+
+    /**
+     * Called when memory under this program is written to, from then on the byte interpreter takes over
+     */
+    void invalidate() {
+        valid = false;
+    }
+
+    public int getBase() {
+        return base;
+    }
+
+    public int getEnd() {
+        return end;
+    }
+
+    public int size() {
+        return code.length / WIDTH;
+    }
+}
@@ -0,0 +1,193 @@
+package vm.hardware;
+
+import os.util.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Hands out and takes back ranges of flat memory.
+ * Free blocks are kept twice: by address so a freed block can be joined with the free blocks on either side of it,
+ * and in segregated lists by size class (class k holds sizes from 2^k up to 2^(k+1) - 1) so a fit is found without
+ * walking every free block. Every class is address ordered, so the lowest block that fits is used and the top
+ * of memory stays free the longest. A count of blocks per size keeps the largest free block, and with it the
+ * fragmentation the scheduler checks on every dispatch, a lookup instead of a walk.
+ */
+class FreeListAllocator {
+    private static final int CLASSES = Integer.SIZE;
+
+    private final int capacity;
+    //start -> size of every free block
+    private final TreeMap<Integer, Integer> freeBlocks = new TreeMap<>();
+    private final List<TreeSet<Integer>> sizeClasses = new ArrayList<>(CLASSES);
+    //size -> how many free blocks have it, so the largest block is known without walking a size class
+    private final TreeMap<Integer, Integer> blockSizes = new TreeMap<>();
+    private int freeBytes;
+
+    private long allocations = 0;
+    private long frees = 0;
+    private long failures = 0;
+    //failures where there was enough free memory, just not in one piece
+    private long fragmentedFailures = 0;
+    private final LatencyHistogram allocateNanos = new LatencyHistogram();
+    private final LatencyHistogram freeNanos = new LatencyHistogram();
+
+    FreeListAllocator(int capacity) {
+        this.capacity = capacity;
+        for (int i = 0; i < CLASSES; i++) {
+            sizeClasses.add(new TreeSet<>());
+        }
+        reset();
+    }
+
+    /**
+     * Everything free again in one block, the stats are kept
+     */
+    void reset() {
+        freeBlocks.clear();
+        for (TreeSet<Integer> sizeClass : sizeClasses) {
+            sizeClass.clear();
+        }
+        blockSizes.clear();
+        freeBytes = 0;
+        addFree(0, capacity);
+    }
+
+    /**
+     * @return the start of the block, -1 if no free block is big enough
+     */
+    int allocate(int size) {
+        long start = System.nanoTime();
+        int address = findFit(size);
+        if (address >= 0) {
+            int blockSize = removeFree(address);
+            if (blockSize > size) {
+                addFree(address + size, blockSize - size);
+            }
+            allocations++;
+        } else {
+            failures++;
+            if (size <= freeBytes) {
+                fragmentedFailures++;
+            }
+        }
+        allocateNanos.record(System.nanoTime() - start);
+        return address;
+    }
+
+    private int findFit(int size) {
+        //the first class can have blocks smaller than the size, every class above only has blocks that fit
+        int first = classOf(size);
+        for (int start : sizeClasses.get(first)) {
+            if (freeBlocks.get(start) >= size) {
+                return start;
+            }
+        }
+        for (int k = first + 1; k < CLASSES; k++) {
+            if (!sizeClasses.get(k).isEmpty()) {
+                return sizeClasses.get(k).first();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gives the block back, joining it with any free block right before or after it
+     */
+    void free(int address, int size) {
+        long start = System.nanoTime();
+        release(address, size);
+        frees++;
+        freeNanos.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Moves an allocated block down into the free memory right in front of it, for compaction
+     */
+    void move(int from, int to, int size) {
+        release(from, size);
+        claim(to, size);
+    }
+
+    private void release(int address, int size) {
+        Map.Entry<Integer, Integer> before = freeBlocks.floorEntry(address);
+        if (before != null && before.getKey() + before.getValue() == address) {
+            address = before.getKey();
+            size += removeFree(address);
+        }
+        Integer after = freeBlocks.get(address + size);
+        if (after != null) {
+            size += removeFree(address + size);
+        }
+        addFree(address, size);
+    }
+
+    /**
+     * Takes exactly address up to address + size out of the free block it sits in
+     */
+    private void claim(int address, int size) {
+        int blockStart = freeBlocks.floorKey(address);
+        int blockSize = removeFree(blockStart);
+        addFree(blockStart, address - blockStart);
+        addFree(address + size, blockStart + blockSize - address - size);
+    }
+
+    private void addFree(int address, int size) {
+        if (size <= 0) {
+            return;
+        }
+        freeBlocks.put(address, size);
+        sizeClasses.get(classOf(size)).add(address);
+        blockSizes.merge(size, 1, Integer::sum);
+        freeBytes += size;
+    }
+
+    /**
+     * @return the size of the free block that started at address
+     */
+    private int removeFree(int address) {
+        int size = freeBlocks.remove(address);
+        sizeClasses.get(classOf(size)).remove(address);
+        blockSizes.compute(size, (blockSize, count) -> count == 1 ? null : count - 1);
+        freeBytes -= size;
+        return size;
+    }
+
+    private static int classOf(int size) {
+        return 31 - Integer.numberOfLeadingZeros(Math.max(1, size));
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    int getFreeBytes() {
+        return freeBytes;
+    }
+
+    int getFreeBlockCount() {
+        return freeBlocks.size();
+    }
+
+    int getLargestFreeBlock() {
+        return blockSizes.isEmpty() ? 0 : blockSizes.lastKey();
+    }
+
+    /**
+     * @return how much of the free memory can't be used by one big load, 0 when it is all in one block
+     */
+    double getExternalFragmentation() {
+        return freeBytes == 0 ? 0 : 1 - (double) getLargestFreeBlock() / freeBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%,d of %,d bytes free in %,d blocks, largest %,d (%.1f%% external fragmentation), "
+                        + "%,d allocations %,d frees %,d failed (%,d to fragmentation), allocate ns %s, free ns %s",
+                freeBytes, capacity, getFreeBlockCount(), getLargestFreeBlock(), getExternalFragmentation() * 100,
+                allocations, frees, failures, fragmentedFailures, allocateNanos, freeNanos);
+    }
+}
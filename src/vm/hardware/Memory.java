@@ -1,119 +1,672 @@
 package vm.hardware;
 
 import os.ProcessControlBlock;
+import os.ProcessStatus;
+import os.util.LatencyHistogram;
+import os.util.LogLevel;
+import os.util.LogSubsystem;
 import os.util.Logging;
+import os.util.TraceEvent;
+import os.util.TraceRecorder;
+import os.util.VerboseModeLogger;
+import vm.VmInstance;
 
-import java.nio.ByteBuffer;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 public class Memory implements Logging {
-    private static final int TOTAL_SIZE = 10000000;
-    private static Memory instance;
+    public static final int DEFAULT_SIZE = 10000000;
+    private static final int MIN_SIZE = 1024;
+    private static final int HEADER_SIZE = 12;
+    public static final int DEFAULT_PAGE_SIZE = 256;
+    private static final int MIN_PAGE_SIZE = 16;
+    private static final int TLB_ENTRIES = 64;
+    //compaction starts once this much of the free memory is outside the largest free block
+    private static final double COMPACTION_THRESHOLD = 0.5;
+    public static final int DEFAULT_COMPACTION_STEP = 64 * 1024;
+
+    //little endian views over a byte[] so reads and writes don't allocate a buffer each time
+    private static final VarHandle SHORT = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final Clock clock;
+    private final VerboseModeLogger logger = VerboseModeLogger.getInstance();
+    private final TraceRecorder trace = TraceRecorder.getInstance();
+    //every core attaches itself when it is built
+    private final List<Cpu> cpus = new ArrayList<>();
+
+    //only the chunks something was written to take up any heap
+    private SparseStore memory = new SparseStore(DEFAULT_SIZE);
+    //the end of the highest program loaded since the last clear
+    private int index = 0;
+    //where flat programs go, whatever a terminated process held is handed out again
+    private FreeListAllocator allocator = new FreeListAllocator(DEFAULT_SIZE);
+    //every process holding flat memory by where its program starts
+    private final TreeMap<Integer, ProcessControlBlock> resident = new TreeMap<>();
+
+    //compaction slides programs down over the free gaps a bit at a time, at most compactionStep bytes per pause
+    private int compactionStep = DEFAULT_COMPACTION_STEP;
+    private boolean compacting = false;
+    //no gaps below this, apart from the ones in front of running processes
+    private int compactFrom = 0;
+    //the running process the last pass couldn't move, no use starting again until it stops running or something is freed
+    private ProcessControlBlock compactionBlockedBy;
+    private long bytesMoved = 0;
+    private long relocations = 0;
+    private final LatencyHistogram compactionPauses = new LatencyHistogram();
+
+    //predecoded programs sorted by base address so writes can find the program they land in
+    private final List<DecodedProgram> decodedPrograms = new ArrayList<>();
+
+    //off by default, programs then get one block of memory each from the allocator.
+    //With paging on memory is split into frames, every process gets a page table and its frames back when it
+    //terminates, and index is only the high water mark of frames handed out
+    private boolean paging = false;
+    private int pageSize = DEFAULT_PAGE_SIZE;
+    private int pageShift = Integer.numberOfTrailingZeros(DEFAULT_PAGE_SIZE);
+    private int frameCount = 0;
+    //frames from here up have never been handed out since the last clear, so they're free without being on the list
+    private int nextFrame = 0;
+    //free frame list of the frames given back, used as a stack
+    private int[] freeFrames = new int[16];
+    private int freeFrameCount = 0;
+    private int generation = 0;
+    private int nextAddressSpace = 0;
+    private final Tlb tlb = new Tlb(TLB_ENTRIES);
+
+    public Memory(Clock clock) {
+        this.clock = clock;
+    }
 
-    private static final Cpu cpu = Cpu.getInstance();
-    private static final Clock clock = Clock.getInstance();
+    public static Memory getInstance() {
+        return VmInstance.current().getMemory();
+    }
 
-    private final byte[] memory = new byte[TOTAL_SIZE];
-    private int index = 0;
+    void attach(Cpu cpu) {
+        cpus.add(cpu);
+    }
 
-    private Memory() {
+    public void detach(Cpu cpu) {
+        cpus.remove(cpu);
     }
 
-    public static Memory getInstance() {
-        if (instance == null) {
-            instance = new Memory();
-        }
+    @Override
+    public VerboseModeLogger logger() {
+        return logger;
+    }
+
+    static byte readByte(byte[] bytes, int offset) {
+        return bytes[offset];
+    }
+
+    static short readShort(byte[] bytes, int offset) {
+        return (short) SHORT.get(bytes, offset);
+    }
+
+    static int readInt(byte[] bytes, int offset) {
+        return (int) INT.get(bytes, offset);
+    }
+
+    static void writeByte(byte[] bytes, int offset, byte value) {
+        bytes[offset] = value;
+    }
+
+    static void writeShort(byte[] bytes, int offset, short value) {
+        SHORT.set(bytes, offset, value);
+    }
+
+    static void writeInt(byte[] bytes, int offset, int value) {
+        INT.set(bytes, offset, value);
+    }
+
+    public byte readByte(int address) {
+        return memory.get(address);
+    }
+
+    public short readShort(int address) {
+        return memory.getShort(address);
+    }
+
+    public int readInt(int address) {
+        return memory.getInt(address);
+    }
+
+    public void writeByte(int address, byte value) {
+        memory.set(address, value);
+        invalidateDecoded(address, Byte.BYTES);
+    }
+
+    public void writeShort(int address, short value) {
+        memory.setShort(address, value);
+        invalidateDecoded(address, Short.BYTES);
+    }
 
-        return instance;
+    public void writeInt(int address, int value) {
+        memory.setInt(address, value);
+        invalidateDecoded(address, Integer.BYTES);
     }
 
-    public byte getByte() {
-        byte b = memory[cpu.getProgramCounter()];
+    public byte getByte(Cpu cpu) {
+        byte b = paging ? readVirtualByte(cpu.getCurrentProcess(), cpu.getProgramCounter()) : memory.get(cpu.getProgramCounter());
         cpu.addToPC(1);
         return b;
     }
 
-    public int getInt(){
-        ByteBuffer bb = ByteBuffer.wrap(Arrays.copyOfRange(memory, cpu.getProgramCounter(), cpu.getProgramCounter() + 4));
-        bb.order(ByteOrder.LITTLE_ENDIAN);
-        int i = bb.getInt();
+    public int getInt(Cpu cpu) {
+        int i = paging ? readVirtualInt(cpu.getCurrentProcess(), cpu.getProgramCounter()) : memory.getInt(cpu.getProgramCounter());
         cpu.addToPC(4);
         return i;
     }
 
     public void setInt(byte location, int value) {
-        ByteBuffer bb = ByteBuffer.allocate(4);
-        bb.order(ByteOrder.LITTLE_ENDIAN);
-        bb.putInt(value);
-        System.arraycopy(bb.array(), 0, memory, location, 4);
+        writeInt(location, value);
+    }
+
+    /**
+     * A store from the process running on the cpu, with paging on the location is in the process's own pages
+     */
+    public void setInt(Cpu cpu, byte location, int value) {
+        if (!paging) {
+            writeInt(location, value);
+            return;
+        }
+
+        ProcessControlBlock pcb = cpu.getCurrentProcess();
+        int first = translate(pcb, location);
+        int last = translate(pcb, location + Integer.BYTES - 1);
+        if (first < 0 || last < 0) {
+            pageFault(pcb, "writing", location);
+            return;
+        }
+        if (last == first + Integer.BYTES - 1) {
+            memory.setInt(first, value);
+        } else {
+            //straddles two frames
+            for (int i = 0; i < Integer.BYTES; i++) {
+                memory.set(translate(pcb, location + i), (byte) (value >>> (8 * i)));
+            }
+        }
+
+        DecodedProgram decodedProgram = pcb.getDecodedProgram();
+        if (decodedProgram != null && decodedProgram.overlaps(location, Integer.BYTES)) {
+            decodedProgram.invalidate();
+        }
     }
 
     public void setByte(byte location, byte value) {
-        memory[location] = value;
+        writeByte(location, value);
     }
 
-    public byte peakByte() {
-        return memory[cpu.getProgramCounter()];
+    /**
+     * Any predecoded program sitting under a write is stale, so it falls back to the byte interpreter
+     */
+    private void invalidateDecoded(int location, int length) {
+        if (decodedPrograms.isEmpty()) {
+            return;
+        }
+
+        for (int i = floorDecoded(location + length - 1); i >= 0; i--) {
+            DecodedProgram program = decodedPrograms.get(i);
+            if (!program.overlaps(location, length)) {
+                break;
+            }
+            program.invalidate();
+        }
+    }
+
+    /**
+     * @return the index of the last decoded program starting at or before address, -1 if there is none
+     */
+    private int floorDecoded(int address) {
+        int low = 0;
+        int high = decodedPrograms.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (decodedPrograms.get(mid).getBase() <= address) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    public byte peakByte(Cpu cpu) {
+        return paging ? readVirtualByte(cpu.getCurrentProcess(), cpu.getProgramCounter()) : memory.get(cpu.getProgramCounter());
+    }
+
+    public int peakInt(Cpu cpu) {
+        return paging ? readVirtualInt(cpu.getCurrentProcess(), cpu.getProgramCounter()) : memory.getInt(cpu.getProgramCounter());
+    }
+
+    /**
+     * @return the physical address, -1 if the process has no page there
+     */
+    private int translate(ProcessControlBlock pcb, int address) {
+        PageTable pageTable = pcb.getPageTable();
+        int page = address >> pageShift;
+        if (address < 0 || pageTable == null || page >= pageTable.size()) {
+            return -1;
+        }
+
+        int frame = tlb.lookup(pageTable.getAddressSpace(), page);
+        if (frame < 0) {
+            frame = pageTable.getFrame(page);
+            tlb.insert(pageTable.getAddressSpace(), page, frame);
+        }
+        return frame << pageShift | address & (pageSize - 1);
+    }
+
+    /**
+     * A fault reads as END so the process stops instead of running whatever is in some other frame
+     */
+    private byte readVirtualByte(ProcessControlBlock pcb, int address) {
+        int physical = translate(pcb, address);
+        if (physical < 0) {
+            pageFault(pcb, "reading", address);
+            return (byte) Cpu.END;
+        }
+        return memory.get(physical);
     }
 
-    public int peakInt() {
-        ByteBuffer bb = ByteBuffer.wrap(Arrays.copyOfRange(memory, cpu.getProgramCounter(), cpu.getProgramCounter() + 4));
-        bb.order(ByteOrder.LITTLE_ENDIAN);
-        return bb.getInt();
+    //kept out of the read and write paths so they stay small enough to inline
+    private void pageFault(ProcessControlBlock pcb, String access, int address) {
+        logError("Process " + pcb.getPid() + ": Page fault " + access + " address " + address);
     }
 
+    private int readVirtualInt(ProcessControlBlock pcb, int address) {
+        if ((address & (pageSize - 1)) <= pageSize - Integer.BYTES) {
+            int physical = translate(pcb, address);
+            if (physical >= 0) {
+                return memory.getInt(physical);
+            }
+        }
+
+        //crosses into the next page, or faults
+        int value = 0;
+        for (int i = 0; i < Integer.BYTES; i++) {
+            value |= (readVirtualByte(pcb, address + i) & 0xFF) << (8 * i);
+        }
+        return value;
+    }
+
+    /**
+     * Turns paging on or off, memory is cleared either way since the two lay programs out differently
+     *
+     * @param pageSize a power of two, ignored when turning paging off
+     * @throws IllegalArgumentException if the page size isn't a power of two or is too small
+     */
+    public void setPaging(boolean paging, int pageSize) {
+        if (paging && (Integer.bitCount(pageSize) != 1 || pageSize < MIN_PAGE_SIZE || pageSize > memory.size())) {
+            throw new IllegalArgumentException("Page size has to be a power of two from " + MIN_PAGE_SIZE + " up to the memory size");
+        }
+
+        this.paging = paging;
+        if (paging) {
+            this.pageSize = pageSize;
+            pageShift = Integer.numberOfTrailingZeros(pageSize);
+        }
+        tlb.resetCounters();
+        clear();
+    }
+
+    /**
+     * Gives the machine a different amount of memory, which clears it.
+     * Nothing is allocated up front, memory is committed a chunk at a time as programs are loaded into it.
+     * Addresses are ints like the registers holding them, so 2 GB is as big as it gets
+     *
+     * @throws IllegalArgumentException if the size is too small, or too small for the page size
+     */
+    public void setSize(int size) {
+        if (size < MIN_SIZE) {
+            throw new IllegalArgumentException("Memory has to be at least " + MIN_SIZE + " bytes");
+        }
+        if (paging && size < pageSize) {
+            throw new IllegalArgumentException("Memory can't be smaller than a page");
+        }
+
+        memory = new SparseStore(size);
+        allocator = new FreeListAllocator(size);
+        clear();
+    }
+
+    public int getSize() {
+        return memory.size();
+    }
+
+    private int getFreeFrameCount() {
+        return freeFrameCount + frameCount - nextFrame;
+    }
+
+    private int takeFrame() {
+        return freeFrameCount > 0 ? freeFrames[--freeFrameCount] : nextFrame++;
+    }
+
+    public boolean isPaging() {
+        return paging;
+    }
+
+    /**
+     * @return how many more bytes of programs fit if memory isn't fragmented, every program also takes one byte for its END
+     */
+    public int getAvailable() {
+        return paging ? getFreeFrameCount() << pageShift : allocator.getFreeBytes();
+    }
+
+    /**
+     * @return the bytes a program of this size takes out of getAvailable once loaded
+     */
+    public int getFootprint(int programSize) {
+        return paging ? pagesFor(programSize) << pageShift : programSize + 1;
+    }
+
+    private int pagesFor(int programSize) {
+        //one more byte for the END
+        return (programSize + pageSize) >> pageShift;
+    }
+
+    /**
+     * @return frames, tlb hits and misses when paging, free blocks, fragmentation and allocation times otherwise
+     */
+    public String getStats() {
+        String committed = String.format("%,d bytes of memory, %,d committed, ", memory.size(), memory.getCommittedBytes());
+        if (!paging) {
+            return committed + "paging off, " + resident.size() + " processes loaded, " + allocator
+                    + String.format(", compaction moved %,d bytes in %,d relocations over %,d pauses, pause ns %s",
+                    bytesMoved, relocations, compactionPauses.getCount(), compactionPauses);
+        }
+
+        long lookups = tlb.getHits() + tlb.getMisses();
+        return committed + String.format("paging on, %d byte pages, %,d of %,d frames free, TLB of %d entries: %,d hits %,d misses (%.2f%% hit rate)",
+                pageSize, getFreeFrameCount(), frameCount, tlb.size(), tlb.getHits(), tlb.getMisses(),
+                lookups > 0 ? tlb.getHits() * 100.0 / lookups : 0);
+    }
 
     public ProcessControlBlock load(byte[] program, ProcessControlBlock pcb) {
         if(!validateLoad(program, pcb)){
             return null;
         }
+        if (paging) {
+            return loadPaged(program, pcb);
+        }
 
-        ByteBuffer bb = ByteBuffer.wrap(program);
-        bb.order(ByteOrder.LITTLE_ENDIAN);
-        log("Loading program " + pcb.getPid());
+        log(LogSubsystem.MEMORY, LogLevel.INFO, "Loading program {}", pcb.getPid());
         //program size is first int in the program header
-        int programSize = bb.getInt();
-        log("Program size: " + programSize);
+        int programSize = readInt(program, 0);
+        log(LogSubsystem.MEMORY, LogLevel.INFO, "Program size: {}", programSize);
 
         //program counter(pc) is second int in the program header
-        int programCounter = bb.getInt();
+        int programCounter = readInt(program, 4);
 
         //loader address is third int in the program header
-        //int loaderAddress = bb.getInt();
-
-        //check if program size exceeds memory capacity
-        if (programSize + index > TOTAL_SIZE) {
+        //int loaderAddress = readInt(program, 8);
+
+        //the program plus its END has to fit in one free block
+        int programStart = allocator.allocate(programSize + 1);
+        if (programStart < 0 && programSize + 1 <= allocator.getFreeBytes()) {
+            //enough memory, just not in one piece, so this can't wait for the next step
+            compact(Integer.MAX_VALUE);
+            programStart = allocator.allocate(programSize + 1);
+        }
+        if (programStart < 0) {
             logError("Process: " + pcb.getPid() + "Program size exceeds memory capacity");
             return null;
         }
 
         //pc needs to be adjusted for loader address
-        pcb.setPc(programCounter + index);
-        log("PC: " + pcb.getPc());
+        pcb.setPc(programCounter + programStart);
+        log(LogSubsystem.MEMORY, LogLevel.INFO, "PC: {}", pcb.getPc());
 
         //loading up PCB for future use
-        pcb.setProgramStart(index);
+        pcb.setProgramStart(programStart);
         pcb.setCodeStart(pcb.getPc());
         pcb.setPc(pcb.getPc());
         pcb.setProgramSize(programSize);
+        resident.put(programStart, pcb);
+
+        log(LogSubsystem.MEMORY, LogLevel.INFO, "Copying program to memory");
+        memory.write(programStart, program, HEADER_SIZE, programSize);
+        int endAddress = programStart + programSize;
+        memory.set(endAddress, (byte) Cpu.END);
+        index = Math.max(index, endAddress + 1);
+
+        DecodedProgram decodedProgram = decode(program, programSize, programCounter);
+        decodedProgram.relocate(programStart);
+        decodedPrograms.add(floorDecoded(decodedProgram.getBase()) + 1, decodedProgram);
+        pcb.setDecodedProgram(decodedProgram);
+        log(LogSubsystem.MEMORY, LogLevel.INFO, "Predecoded {} instructions", decodedProgram.size());
+        trace.record(TraceEvent.LOAD, pcb.getCore(), pcb.getPid(), pcb.getProgramStart(), programSize);
+        log(LogSubsystem.MEMORY, LogLevel.DEBUG, () -> coreDump(pcb));
+        clock.tick(1);
+        return pcb;
+    }
 
-        log("Copying program to memory");
-        System.arraycopy(program, 12, memory, index, programSize);
-        index += programSize;
-        memory[index++] = (byte) Cpu.END;
-        log(coreDump(pcb));
+    /**
+     * Every page of the program goes into whichever frame is free, the process's addresses start at 0
+     */
+    private ProcessControlBlock loadPaged(byte[] program, ProcessControlBlock pcb) {
+        log(LogSubsystem.MEMORY, LogLevel.INFO, "Loading program {}", pcb.getPid());
+        int programSize = readInt(program, 0);
+        int programCounter = readInt(program, 4);
+        log(LogSubsystem.MEMORY, LogLevel.INFO, "Program size: {}", programSize);
+
+        int pages = pagesFor(programSize);
+        if (pages > getFreeFrameCount()) {
+            logError("Process: " + pcb.getPid() + " | Needs " + pages + " frames but only " + getFreeFrameCount() + " are free");
+            return null;
+        }
+
+        int[] frames = new int[pages];
+        for (int page = 0; page < pages; page++) {
+            int frame = takeFrame();
+            frames[page] = frame;
+            int start = frame << pageShift;
+            int length = Math.max(0, Math.min(pageSize, programSize - (page << pageShift)));
+            memory.write(start, program, HEADER_SIZE + (page << pageShift), length);
+            //whatever the last process left behind in the rest of the frame
+            memory.fill(start + length, pageSize - length, (byte) 0);
+            index = Math.max(index, start + pageSize);
+        }
+        memory.set(frames[programSize >> pageShift] << pageShift | programSize & (pageSize - 1), (byte) Cpu.END);
+
+        pcb.setPageTable(new PageTable(frames, generation, nextAddressSpace++));
+        pcb.setProgramStart(0);
+        pcb.setCodeStart(programCounter);
+        pcb.setPc(programCounter);
+        pcb.setProgramSize(programSize);
+        log(LogSubsystem.MEMORY, LogLevel.INFO, "PC: {}, {} pages", pcb.getPc(), pages);
+
+        //decoded from the process's view of memory, writes only ever land in its own pages
+        DecodedProgram decodedProgram = decode(program, programSize, programCounter);
+        pcb.setDecodedProgram(decodedProgram);
+        log(LogSubsystem.MEMORY, LogLevel.INFO, "Predecoded {} instructions", decodedProgram.size());
+        trace.record(TraceEvent.LOAD, pcb.getCore(), pcb.getPid(), frames[0] << pageShift, programSize);
+        log(LogSubsystem.MEMORY, LogLevel.DEBUG, () -> coreDump(pcb));
         clock.tick(1);
         return pcb;
     }
 
+    /**
+     * Decodes straight from the image rather than from memory, addresses start at 0 like they do in the image
+     */
+    private static DecodedProgram decode(byte[] program, int programSize, int programCounter) {
+        return DecodedProgram.decode(program, HEADER_SIZE, programCounter, programSize);
+    }
+
+    /**
+     * Gives a terminated process's memory back, its block to the allocator or its frames to the free frame list.
+     * The bytes are left as they are so a core dump still shows the program until something else is loaded there
+     */
+    public void free(ProcessControlBlock pcb) {
+        if (resident.get(pcb.getProgramStart()) == pcb) {
+            resident.remove(pcb.getProgramStart());
+            removeDecoded(pcb.getDecodedProgram());
+            allocator.free(pcb.getProgramStart(), pcb.getProgramSize() + 1);
+            compactFrom = Math.min(compactFrom, pcb.getProgramStart());
+            compactionBlockedBy = null;
+            return;
+        }
+
+        PageTable pageTable = pcb.getPageTable();
+        if (pageTable == null) {
+            //never loaded, already freed or loaded before the last clear
+            return;
+        }
+
+        pcb.setPageTable(null);
+        //cleared since it was loaded, the frames are already free
+        if (pageTable.getGeneration() != generation) {
+            return;
+        }
+        if (freeFrameCount + pageTable.size() > freeFrames.length) {
+            freeFrames = Arrays.copyOf(freeFrames, Math.max(freeFrames.length * 2, freeFrameCount + pageTable.size()));
+        }
+        for (int page = pageTable.size() - 1; page >= 0; page--) {
+            freeFrames[freeFrameCount++] = pageTable.getFrame(page);
+        }
+        tlb.invalidate(pageTable.getAddressSpace());
+    }
+
+    /**
+     * One pause of compaction, the scheduler calls this between quanta.
+     * Starts once free memory gets too fragmented and then carries on until it is back in one piece
+     */
+    public void compactStep() {
+        if (paging) {
+            return;
+        }
+        if (!compacting) {
+            if (allocator.getFreeBlockCount() < 2
+                    || compactionBlockedBy != null && compactionBlockedBy.getStatus() == ProcessStatus.RUNNING
+                    || allocator.getExternalFragmentation() < COMPACTION_THRESHOLD) {
+                return;
+            }
+            compacting = true;
+        }
+        compact(compactionStep);
+    }
+
+    /**
+     * Slides programs down over the gaps from compactFrom up until budget bytes have been moved.
+     * Running processes have their registers in a cpu, so they stay where they are and the gap in front stays too
+     */
+    private void compact(int budget) {
+        long start = System.nanoTime();
+        int moved = 0;
+        int cursor = compactFrom;
+        int firstGap = -1;
+        ProcessControlBlock blockedBy = null;
+
+        Map.Entry<Integer, ProcessControlBlock> entry = resident.ceilingEntry(cursor);
+        while (entry != null && moved < budget) {
+            ProcessControlBlock pcb = entry.getValue();
+            int size = pcb.getProgramSize() + 1;
+            if (entry.getKey() > cursor && pcb.getStatus() == ProcessStatus.RUNNING) {
+                if (firstGap < 0) {
+                    firstGap = cursor;
+                    blockedBy = pcb;
+                }
+                cursor = entry.getKey() + size;
+            } else if (entry.getKey() > cursor) {
+                relocate(pcb, cursor);
+                moved += size;
+                cursor += size;
+            } else {
+                cursor = entry.getKey() + size;
+            }
+            entry = resident.ceilingEntry(cursor);
+        }
+
+        compactFrom = firstGap >= 0 ? firstGap : cursor;
+        if (entry == null) {
+            //reached the top
+            compacting = false;
+            compactionBlockedBy = blockedBy;
+        }
+        compactionPauses.record(System.nanoTime() - start);
+        if (moved > 0) {
+            log(LogSubsystem.MEMORY, LogLevel.DEBUG, "Compaction moved {} bytes", moved);
+        }
+    }
+
+    /**
+     * Moves the program down to the address and fixes up everything that points into it
+     */
+    private void relocate(ProcessControlBlock pcb, int address) {
+        int from = pcb.getProgramStart();
+        int size = pcb.getProgramSize() + 1;
+        int delta = address - from;
+
+        memory.move(from, address, size);
+        allocator.move(from, address, size);
+        resident.remove(from);
+        resident.put(address, pcb);
+
+        pcb.setProgramStart(address);
+        pcb.setCodeStart(pcb.getCodeStart() + delta);
+        //the saved pc, register 11
+        pcb.setPc(pcb.getPc() + delta);
+
+        DecodedProgram decodedProgram = pcb.getDecodedProgram();
+        int i = indexOfDecoded(decodedProgram);
+        if (i >= 0) {
+            decodedProgram.relocate(delta);
+            //programs only ever slide down into the gap above the one before them, so the order almost always holds
+            if (i > 0 && decodedPrograms.get(i - 1).getBase() > decodedProgram.getBase()) {
+                decodedPrograms.remove(i);
+                decodedPrograms.add(floorDecoded(decodedProgram.getBase()) + 1, decodedProgram);
+            }
+        }
+        bytesMoved += size;
+        relocations++;
+    }
+
+    /**
+     * @param compactionStep the most bytes one compaction pause moves
+     */
+    public void setCompactionStep(int compactionStep) {
+        if (compactionStep < 1) {
+            throw new IllegalArgumentException("Compaction step has to be at least one byte");
+        }
+        this.compactionStep = compactionStep;
+    }
+
+    private void removeDecoded(DecodedProgram decodedProgram) {
+        int i = indexOfDecoded(decodedProgram);
+        if (i >= 0) {
+            decodedPrograms.remove(i);
+        }
+    }
+
+    /**
+     * @return where the program is in decodedPrograms, -1 if it isn't there
+     */
+    private int indexOfDecoded(DecodedProgram decodedProgram) {
+        if (decodedProgram == null) {
+            return -1;
+        }
+        //programs can share a base when one starts where another one's pc pointed past its end
+        for (int i = floorDecoded(decodedProgram.getBase()); i >= 0 && decodedPrograms.get(i).getBase() == decodedProgram.getBase(); i--) {
+            if (decodedPrograms.get(i) == decodedProgram) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     private boolean validateLoad(byte[] program, ProcessControlBlock pcb) {
         if(program == null) {
             logError("Process: " + pcb.getPid() + " | " + "Program is null");
             return false;
         }
 
-        if(program.length < 12) {
+        if(program.length < HEADER_SIZE) {
             logError("Process: " + pcb.getPid() + " | " + "Program size is less than 12 bytes");
             return false;
         }
@@ -121,23 +674,52 @@ public class Memory implements Logging {
         return true;
     }
 
+    /**
+     * Only the chunks that were committed are touched, so this is quick however big memory is
+     */
     public void clear() {
-        Arrays.fill(memory, (byte) 0);
-        cpu.setProgramCounter(0);
+        memory.clear();
+        for (Cpu cpu : cpus) {
+            cpu.setProgramCounter(0);
+        }
         index = 0;
-        log("Memory cleared");
+        decodedPrograms.forEach(DecodedProgram::invalidate);
+        decodedPrograms.clear();
+        allocator.reset();
+        resident.clear();
+        compacting = false;
+        compactFrom = 0;
+        compactionBlockedBy = null;
+        generation++;
+        frameCount = paging ? memory.size() >> pageShift : 0;
+        nextFrame = 0;
+        freeFrameCount = 0;
+        tlb.flush();
+        log(LogSubsystem.MEMORY, LogLevel.INFO, "Memory cleared");
     }
 
     public void clear(ProcessControlBlock pcb){
-        Arrays.fill(memory, pcb.getProgramStart(), pcb.getProgramStart() + pcb.getProgramSize() + 1, (byte) 0);
-       // log("Memory cleared for process " + pcb.getPid());
+        DecodedProgram decodedProgram = pcb.getDecodedProgram();
+        if (decodedProgram != null) {
+            decodedProgram.invalidate();
+            removeDecoded(decodedProgram);
+        }
+        PageTable pageTable = pcb.getPageTable();
+        if (pageTable != null) {
+            for (int page = 0; page < pageTable.size(); page++) {
+                memory.fill(pageTable.getFrame(page) << pageShift, pageSize, (byte) 0);
+            }
+            return;
+        }
+        memory.fill(pcb.getProgramStart(), pcb.getProgramSize() + 1, (byte) 0);
+       // log(LogSubsystem.MEMORY, LogLevel.INFO, "Memory cleared for process {}", pcb.getPid());
     }
 
     public String coreDump(int start, int end) {
         StringBuilder sb = new StringBuilder();
         sb.append("Core Dump:\n");
         for (int i = start; i < end; i++) {
-            sb.append(memory[i]);
+            sb.append(memory.get(i));
             sb.append(" ");
             if ((i - start + 1) % 6 == 0) {
                 sb.append("\n");
@@ -148,7 +730,24 @@ public class Memory implements Logging {
     }
 
     public String coreDump(ProcessControlBlock pcb) {
-        return coreDump(pcb.getCodeStart(), pcb.getCodeStart() + pcb.getProgramSize());
+        if (!paging) {
+            return coreDump(pcb.getCodeStart(), pcb.getCodeStart() + pcb.getProgramSize());
+        }
+        if (pcb.getPageTable() == null) {
+            return "Core Dump:\nProcess " + pcb.getPid() + " holds no frames";
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("Core Dump:\n");
+        for (int i = pcb.getCodeStart(); i < pcb.getCodeStart() + pcb.getProgramSize(); i++) {
+            int physical = translate(pcb, i);
+            sb.append(physical < 0 ? 0 : memory.get(physical));
+            sb.append(" ");
+            if ((i - pcb.getCodeStart() + 1) % 6 == 0) {
+                sb.append("\n");
+            }
+        }
+        return sb.toString();
     }
 
     public String coreDump() {
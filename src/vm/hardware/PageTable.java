@@ -0,0 +1,35 @@
+package vm.hardware;
+
+/**
+ * Where every page of a process lives when memory is paged, page n of the process is in frames[n].
+ * Every process sees its own addresses starting at 0.
+ */
+public class PageTable {
+    private final int[] frames;
+    //the memory clear the frames were handed out after, frames from before a clear are not given back twice
+    private final int generation;
+    //tags the tlb entries of this table, unlike pids these are never handed out twice
+    private final int addressSpace;
+
+    PageTable(int[] frames, int generation, int addressSpace) {
+        this.frames = frames;
+        this.generation = generation;
+        this.addressSpace = addressSpace;
+    }
+
+    public int size() {
+        return frames.length;
+    }
+
+    public int getFrame(int page) {
+        return frames[page];
+    }
+
+    int getGeneration() {
+        return generation;
+    }
+
+    int getAddressSpace() {
+        return addressSpace;
+    }
+}
@@ -0,0 +1,176 @@
+package vm.hardware;
+
+import java.util.Arrays;
+
+/**
+ * The bytes behind Memory, split into fixed size chunks that only get allocated the first time something is
+ * written to them. A chunk that was never written reads as zeros, so a machine with gigabytes of memory costs
+ * nothing until programs are loaded into it, and clearing it only has to drop the chunks that were used.
+ */
+class SparseStore {
+    static final int CHUNK_SHIFT = 16;
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final int size;
+    private final byte[][] chunks;
+    //which chunks are committed, in the order they were, so clear doesn't have to look at the rest
+    private int[] committed = new int[16];
+    private int committedCount = 0;
+
+    SparseStore(int size) {
+        this.size = size;
+        chunks = new byte[(int) (((long) size + CHUNK_SIZE - 1) >> CHUNK_SHIFT)][];
+    }
+
+    int size() {
+        return size;
+    }
+
+    byte get(int address) {
+        byte[] chunk = chunks[address >>> CHUNK_SHIFT];
+        return chunk == null ? 0 : chunk[address & CHUNK_MASK];
+    }
+
+    void set(int address, byte value) {
+        commit(address >>> CHUNK_SHIFT)[address & CHUNK_MASK] = value;
+    }
+
+    int getInt(int address) {
+        int offset = address & CHUNK_MASK;
+        if (offset <= CHUNK_SIZE - Integer.BYTES) {
+            byte[] chunk = chunks[address >>> CHUNK_SHIFT];
+            return chunk == null ? 0 : Memory.readInt(chunk, offset);
+        }
+
+        //runs over into the next chunk
+        int value = 0;
+        for (int i = 0; i < Integer.BYTES; i++) {
+            value |= (get(address + i) & 0xFF) << (8 * i);
+        }
+        return value;
+    }
+
+    short getShort(int address) {
+        int offset = address & CHUNK_MASK;
+        if (offset <= CHUNK_SIZE - Short.BYTES) {
+            byte[] chunk = chunks[address >>> CHUNK_SHIFT];
+            return chunk == null ? 0 : Memory.readShort(chunk, offset);
+        }
+        return (short) (get(address) & 0xFF | (get(address + 1) & 0xFF) << 8);
+    }
+
+    void setInt(int address, int value) {
+        int offset = address & CHUNK_MASK;
+        if (offset <= CHUNK_SIZE - Integer.BYTES) {
+            Memory.writeInt(commit(address >>> CHUNK_SHIFT), offset, value);
+            return;
+        }
+        for (int i = 0; i < Integer.BYTES; i++) {
+            set(address + i, (byte) (value >>> (8 * i)));
+        }
+    }
+
+    void setShort(int address, short value) {
+        int offset = address & CHUNK_MASK;
+        if (offset <= CHUNK_SIZE - Short.BYTES) {
+            Memory.writeShort(commit(address >>> CHUNK_SHIFT), offset, value);
+            return;
+        }
+        set(address, (byte) value);
+        set(address + 1, (byte) (value >>> 8));
+    }
+
+    /**
+     * Copies bytes in from outside memory, a program image being loaded
+     */
+    void write(int address, byte[] source, int sourceOffset, int length) {
+        while (length > 0) {
+            int offset = address & CHUNK_MASK;
+            int piece = Math.min(length, CHUNK_SIZE - offset);
+            System.arraycopy(source, sourceOffset, commit(address >>> CHUNK_SHIFT), offset, piece);
+            address += piece;
+            sourceOffset += piece;
+            length -= piece;
+        }
+    }
+
+    /**
+     * Moves bytes within memory, the two ranges may overlap
+     */
+    void move(int from, int to, int length) {
+        if (to < from) {
+            while (length > 0) {
+                int piece = Math.min(length, Math.min(CHUNK_SIZE - (from & CHUNK_MASK), CHUNK_SIZE - (to & CHUNK_MASK)));
+                movePiece(from, to, piece);
+                from += piece;
+                to += piece;
+                length -= piece;
+            }
+        } else if (to > from) {
+            //back to front so nothing is overwritten before it's copied
+            int fromEnd = from + length;
+            int toEnd = to + length;
+            while (length > 0) {
+                int piece = Math.min(length, Math.min(((fromEnd - 1) & CHUNK_MASK) + 1, ((toEnd - 1) & CHUNK_MASK) + 1));
+                fromEnd -= piece;
+                toEnd -= piece;
+                movePiece(fromEnd, toEnd, piece);
+                length -= piece;
+            }
+        }
+    }
+
+    private void movePiece(int from, int to, int length) {
+        byte[] source = chunks[from >>> CHUNK_SHIFT];
+        if (source == null) {
+            fill(to, length, (byte) 0);
+            return;
+        }
+        System.arraycopy(source, from & CHUNK_MASK, commit(to >>> CHUNK_SHIFT), to & CHUNK_MASK, length);
+    }
+
+    /**
+     * Zeros in a chunk that was never committed are already there, so those chunks are skipped
+     */
+    void fill(int address, int length, byte value) {
+        while (length > 0) {
+            int offset = address & CHUNK_MASK;
+            int piece = Math.min(length, CHUNK_SIZE - offset);
+            byte[] chunk = value == 0 ? chunks[address >>> CHUNK_SHIFT] : commit(address >>> CHUNK_SHIFT);
+            if (chunk != null) {
+                Arrays.fill(chunk, offset, offset + piece, value);
+            }
+            address += piece;
+            length -= piece;
+        }
+    }
+
+    /**
+     * Drops every committed chunk, everything reads as zero again
+     */
+    void clear() {
+        for (int i = 0; i < committedCount; i++) {
+            chunks[committed[i]] = null;
+        }
+        committedCount = 0;
+    }
+
+    long getCommittedBytes() {
+        return (long) committedCount << CHUNK_SHIFT;
+    }
+
+    private byte[] commit(int index) {
+        byte[] chunk = chunks[index];
+        if (chunk == null) {
+            //the last chunk only holds what's left of the size
+            chunk = new byte[(int) Math.min(CHUNK_SIZE, size - ((long) index << CHUNK_SHIFT))];
+            chunks[index] = chunk;
+            if (committedCount == committed.length) {
+                committed = Arrays.copyOf(committed, committedCount * 2);
+            }
+            committed[committedCount++] = index;
+        }
+        return chunk;
+    }
+}
@@ -0,0 +1,87 @@
+package vm.hardware;
+
+import java.util.Arrays;
+
+/**
+ * A software translation lookaside buffer in front of the page tables.
+ * Direct mapped, every entry is tagged with the address space as well as the page so it doesn't have to be flushed
+ * on a context switch, only the entries of a process that gives its frames back are dropped.
+ */
+class Tlb {
+    private static final long EMPTY = -1;
+
+    private final long[] tags;
+    private final int[] frames;
+    private final int mask;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param entries rounded up to a power of two
+     */
+    Tlb(int entries) {
+        int size = Integer.highestOneBit(Math.max(1, entries - 1)) << 1;
+        tags = new long[size];
+        frames = new int[size];
+        mask = size - 1;
+        Arrays.fill(tags, EMPTY);
+    }
+
+    /**
+     * @return the frame the page is in, -1 on a miss
+     */
+    int lookup(int addressSpace, int page) {
+        int slot = slot(addressSpace, page);
+        if (tags[slot] == tag(addressSpace, page)) {
+            hits++;
+            return frames[slot];
+        }
+        misses++;
+        return -1;
+    }
+
+    void insert(int addressSpace, int page, int frame) {
+        int slot = slot(addressSpace, page);
+        tags[slot] = tag(addressSpace, page);
+        frames[slot] = frame;
+    }
+
+    void invalidate(int addressSpace) {
+        for (int i = 0; i < tags.length; i++) {
+            if (tags[i] != EMPTY && (int) (tags[i] >>> 32) == addressSpace) {
+                tags[i] = EMPTY;
+            }
+        }
+    }
+
+    void flush() {
+        Arrays.fill(tags, EMPTY);
+    }
+
+    void resetCounters() {
+        hits = 0;
+        misses = 0;
+    }
+
+    int size() {
+        return tags.length;
+    }
+
+    long getHits() {
+        return hits;
+    }
+
+    long getMisses() {
+        return misses;
+    }
+
+    private int slot(int addressSpace, int page) {
+        //spread the address spaces out so page 0 of every process doesn't land in the same entry
+        return (page ^ addressSpace * 0x9E3779B1) & mask;
+    }
+
+    private static long tag(int addressSpace, int page) {
+        return (long) addressSpace << 32 | page & 0xFFFFFFFFL;
+    }
+}